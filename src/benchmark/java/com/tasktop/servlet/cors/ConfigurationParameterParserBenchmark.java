@@ -0,0 +1,44 @@
+package com.tasktop.servlet.cors;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationParameterParserBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int pathCount;
+
+	private String exclusionPaths;
+
+	@Setup
+	public void setUp() {
+		StringBuilder paths = new StringBuilder();
+		for (int i = 0; i < pathCount; ++i) {
+			paths.append(i % 2 == 0 ? "/api/service-" : "\n\t\tapi/service-").append(i).append("/, ");
+		}
+		exclusionPaths = paths.toString();
+	}
+
+	@Benchmark
+	public List<String> parseExclusionPaths() {
+		return ConfigurationParameterParser.parseExclusionPaths(exclusionPaths);
+	}
+}
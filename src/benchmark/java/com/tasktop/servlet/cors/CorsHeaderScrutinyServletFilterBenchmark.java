@@ -0,0 +1,91 @@
+package com.tasktop.servlet.cors;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorsHeaderScrutinyServletFilterBenchmark {
+
+	public enum Workload {
+		/** Same-host Origin and Referer. */
+		ALLOW,
+		/** Cross-host Origin. */
+		REJECT,
+		/** Cross-host Origin on an excluded path. */
+		EXCLUDED,
+		/** Neither Origin nor Referer. */
+		NO_ORIGIN
+	}
+
+	@Param
+	public Workload workload;
+
+	@Param({ "0", "1024" })
+	public int hostVerdictCacheSize;
+
+	/** Whether rejections are written directly instead of through sendError. */
+	@Param({ "false", "true" })
+	public boolean rejectionResponseDirect;
+
+	private CorsHeaderScrutinyServletFilter filter;
+	private FakeHttpServletRequest request;
+	private FakeHttpServletResponse response;
+	private FilterChain chain;
+
+	@Setup
+	public void setUp(Blackhole blackhole) throws ServletException {
+		filter = new CorsHeaderScrutinyServletFilter();
+		filter.init(new FakeFilterConfig()
+				.withInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX, "/api/public/ /static/")
+				.withInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE,
+						Integer.toString(hostVerdictCacheSize))
+				.withInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_DIRECT,
+						Boolean.toString(rejectionResponseDirect)));
+		response = new FakeHttpServletResponse();
+		chain = (request, response) -> blackhole.consume(request);
+		request = new FakeHttpServletRequest().withMethod("POST").withHeader("Host", "app.example.com:8443");
+		switch (workload) {
+		case ALLOW:
+			request.withPath("/context", "/context/api/items")
+					.withHeader("Origin", "https://app.example.com:8443")
+					.withHeader("Referer", "https://app.example.com:8443/context/index.html");
+			break;
+		case REJECT:
+			request.withPath("/context", "/context/api/items").withHeader("Origin", "https://evil.example.org");
+			break;
+		case EXCLUDED:
+			request.withPath("/context", "/context/api/public/items").withHeader("Origin", "https://evil.example.org");
+			break;
+		case NO_ORIGIN:
+			request.withPath("/context", "/context/api/items");
+			break;
+		}
+	}
+
+	@Benchmark
+	public int doFilter() throws IOException, ServletException {
+		filter.doFilter(request, response, chain);
+		return response.getStatus();
+	}
+}
@@ -0,0 +1,42 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * A filter configuration for benchmarks, holding only init parameters.
+ */
+class FakeFilterConfig implements FilterConfig {
+
+	private final Map<String, String> initParameters = new HashMap<>();
+
+	FakeFilterConfig withInitParameter(String name, String value) {
+		initParameters.put(name, value);
+		return this;
+	}
+
+	@Override
+	public String getFilterName() {
+		return "CORSFilter";
+	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return null;
+	}
+
+	@Override
+	public String getInitParameter(String name) {
+		return initParameters.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getInitParameterNames() {
+		return Collections.enumeration(initParameters.keySet());
+	}
+}
@@ -0,0 +1,426 @@
+package com.tasktop.servlet.cors;
+
+import java.io.BufferedReader;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+
+/**
+ * A minimal request for benchmarks, cheaper than a mock so that measurements reflect the filter rather than the test
+ * double. Header enumerations are reused between calls, so an instance must only be used by one thread.
+ */
+class FakeHttpServletRequest implements HttpServletRequest {
+
+	private final Map<String, ReusableEnumeration> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private String method = "GET";
+	private String contextPath = "";
+	private String requestUri = "/";
+
+	FakeHttpServletRequest withMethod(String method) {
+		this.method = method;
+		return this;
+	}
+
+	FakeHttpServletRequest withPath(String contextPath, String requestUri) {
+		this.contextPath = contextPath;
+		this.requestUri = requestUri;
+		return this;
+	}
+
+	FakeHttpServletRequest withHeader(String name, String... values) {
+		headers.put(name, new ReusableEnumeration(values));
+		return this;
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name) {
+		ReusableEnumeration values = headers.get(name);
+		if (values == null) {
+			return Collections.emptyEnumeration();
+		}
+		values.reset();
+		return values;
+	}
+
+	@Override
+	public String getHeader(String name) {
+		ReusableEnumeration values = headers.get(name);
+		return values == null ? null : values.values[0];
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(headers.keySet());
+	}
+
+	@Override
+	public String getMethod() {
+		return method;
+	}
+
+	@Override
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return requestUri;
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		return new StringBuffer("http://localhost").append(requestUri);
+	}
+
+	@Override
+	public String getServletPath() {
+		return "";
+	}
+
+	@Override
+	public String getPathInfo() {
+		return requestUri.substring(contextPath.length());
+	}
+
+	@Override
+	public String getAuthType() {
+		return null;
+	}
+
+	@Override
+	public Cookie[] getCookies() {
+		return null;
+	}
+
+	@Override
+	public long getDateHeader(String name) {
+		return -1;
+	}
+
+	@Override
+	public int getIntHeader(String name) {
+		return -1;
+	}
+
+	@Override
+	public String getPathTranslated() {
+		return null;
+	}
+
+	@Override
+	public String getQueryString() {
+		return null;
+	}
+
+	@Override
+	public String getRemoteUser() {
+		return null;
+	}
+
+	@Override
+	public boolean isUserInRole(String role) {
+		return false;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return null;
+	}
+
+	@Override
+	public String getRequestedSessionId() {
+		return null;
+	}
+
+	@Override
+	public HttpSession getSession(boolean create) {
+		return null;
+	}
+
+	@Override
+	public HttpSession getSession() {
+		return null;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdValid() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromCookie() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromURL() {
+		return false;
+	}
+
+	@Override
+	public boolean isRequestedSessionIdFromUrl() {
+		return false;
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return null;
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.emptyEnumeration();
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return null;
+	}
+
+	@Override
+	public void setCharacterEncoding(String env) {
+		// ignored
+	}
+
+	@Override
+	public int getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	@Override
+	public ServletInputStream getInputStream() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String getParameter(String name) {
+		return null;
+	}
+
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.emptyEnumeration();
+	}
+
+	@Override
+	public String[] getParameterValues(String name) {
+		return null;
+	}
+
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public String getProtocol() {
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public String getScheme() {
+		return "http";
+	}
+
+	@Override
+	public String getServerName() {
+		return "localhost";
+	}
+
+	@Override
+	public int getServerPort() {
+		return 80;
+	}
+
+	@Override
+	public BufferedReader getReader() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String getRemoteAddr() {
+		return "127.0.0.1";
+	}
+
+	@Override
+	public String getRemoteHost() {
+		return "localhost";
+	}
+
+	@Override
+	public void setAttribute(String name, Object o) {
+		// ignored
+	}
+
+	@Override
+	public void removeAttribute(String name) {
+		// ignored
+	}
+
+	@Override
+	public Locale getLocale() {
+		return Locale.ROOT;
+	}
+
+	@Override
+	public Enumeration<Locale> getLocales() {
+		return Collections.emptyEnumeration();
+	}
+
+	@Override
+	public boolean isSecure() {
+		return false;
+	}
+
+	@Override
+	public RequestDispatcher getRequestDispatcher(String path) {
+		return null;
+	}
+
+	@Override
+	public String getRealPath(String path) {
+		return null;
+	}
+
+	@Override
+	public int getRemotePort() {
+		return 0;
+	}
+
+	@Override
+	public String getLocalName() {
+		return "localhost";
+	}
+
+	@Override
+	public String getLocalAddr() {
+		return "127.0.0.1";
+	}
+
+	@Override
+	public int getLocalPort() {
+		return 80;
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return -1;
+	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return null;
+	}
+
+	@Override
+	public AsyncContext startAsync() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isAsyncStarted() {
+		return false;
+	}
+
+	@Override
+	public boolean isAsyncSupported() {
+		return false;
+	}
+
+	@Override
+	public AsyncContext getAsyncContext() {
+		throw new IllegalStateException();
+	}
+
+	@Override
+	public DispatcherType getDispatcherType() {
+		return DispatcherType.REQUEST;
+	}
+
+	@Override
+	public boolean authenticate(HttpServletResponse response) {
+		return false;
+	}
+
+	@Override
+	public void login(String username, String password) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void logout() {
+		// ignored
+	}
+
+	@Override
+	public Collection<Part> getParts() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Part getPart(String name) {
+		return null;
+	}
+
+	@Override
+	public String changeSessionId() {
+		throw new IllegalStateException();
+	}
+
+	@Override
+	public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) {
+		throw new UnsupportedOperationException();
+	}
+
+	private static class ReusableEnumeration implements Enumeration<String> {
+		private final String[] values;
+		private int next;
+
+		ReusableEnumeration(String[] values) {
+			this.values = values;
+		}
+
+		void reset() {
+			next = 0;
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return next < values.length;
+		}
+
+		@Override
+		public String nextElement() {
+			return values[next++];
+		}
+	}
+}
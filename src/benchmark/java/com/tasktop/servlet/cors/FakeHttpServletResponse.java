@@ -0,0 +1,227 @@
+package com.tasktop.servlet.cors;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A minimal response for benchmarks that only records its status and discards its body.
+ */
+class FakeHttpServletResponse implements HttpServletResponse {
+
+	private final ServletOutputStream outputStream = new ServletOutputStream() {
+
+		@Override
+		public void write(int b) {
+			// discarded
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// discarded
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			// never blocks
+		}
+	};
+
+	private int status = SC_OK;
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void sendError(int sc, String msg) {
+		status = sc;
+	}
+
+	@Override
+	public void sendError(int sc) {
+		status = sc;
+	}
+
+	@Override
+	public void setStatus(int sc) {
+		status = sc;
+	}
+
+	@Override
+	public void setStatus(int sc, String sm) {
+		status = sc;
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		// ignored
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return false;
+	}
+
+	@Override
+	public String encodeURL(String url) {
+		return url;
+	}
+
+	@Override
+	public String encodeRedirectURL(String url) {
+		return url;
+	}
+
+	@Override
+	public String encodeUrl(String url) {
+		return url;
+	}
+
+	@Override
+	public String encodeRedirectUrl(String url) {
+		return url;
+	}
+
+	@Override
+	public void sendRedirect(String location) {
+		status = SC_FOUND;
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		// ignored
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		// ignored
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		// ignored
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		// ignored
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		// ignored
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		// ignored
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return "ISO-8859-1";
+	}
+
+	@Override
+	public String getContentType() {
+		return null;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset) {
+		// ignored
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		// ignored
+	}
+
+	@Override
+	public void setContentType(String type) {
+		// ignored
+	}
+
+	@Override
+	public void setBufferSize(int size) {
+		// ignored
+	}
+
+	@Override
+	public int getBufferSize() {
+		return 0;
+	}
+
+	@Override
+	public void flushBuffer() {
+		// ignored
+	}
+
+	@Override
+	public void resetBuffer() {
+		// ignored
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+		status = SC_OK;
+	}
+
+	@Override
+	public void setLocale(Locale loc) {
+		// ignored
+	}
+
+	@Override
+	public Locale getLocale() {
+		return Locale.ROOT;
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		// ignored
+	}
+
+	@Override
+	public String getHeader(String name) {
+		return null;
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return Collections.emptyList();
+	}
+}
@@ -0,0 +1,364 @@
+package com.tasktop.servlet.cors;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives an HTTP server from several threads, each holding one keep-alive connection and sending a fixed mix of
+ * pre-encoded requests. Responses are parsed in reusable buffers so that the generator itself allocates next to
+ * nothing and the allocation measured on the server threads is the server's own.
+ */
+class LoadGenerator {
+
+	enum RequestKind {
+		/** Same-host Origin, allowed by the filter. */
+		ALLOWED,
+		/** Cross-host Origin, rejected by the filter. */
+		REJECTED,
+		/** Cross-host Origin on an excluded path, never scrutinized. */
+		EXCLUDED
+	}
+
+	static final String CONTEXT_PATH = "/app";
+	static final String EXCLUDED_PATH = "/excluded/";
+
+	private static final int SCHEDULE_LENGTH = 100;
+	private static final int BUFFER_SIZE = 8192;
+
+	private final int port;
+	private final int threads;
+	private final Map<RequestKind, Integer> mix;
+
+	/**
+	 * @param mix
+	 *            the percentage of requests of each kind, adding up to 100
+	 */
+	LoadGenerator(int port, int threads, Map<RequestKind, Integer> mix) {
+		this.port = port;
+		this.threads = threads;
+		this.mix = mix;
+		if (mix.values().stream().mapToInt(Integer::intValue).sum() != SCHEDULE_LENGTH) {
+			throw new IllegalArgumentException("Request mix must add up to 100% but was " + mix);
+		}
+	}
+
+	/**
+	 * Sends requests for the warmup period and then for the measured period, recording only the latter.
+	 */
+	Result run(long warmupMillis, long measurementMillis) throws InterruptedException {
+		Result result = new Result();
+		List<Worker> workers = new ArrayList<>();
+		for (int i = 0; i < threads; ++i) {
+			workers.add(new Worker(i, result));
+		}
+		workers.forEach(Thread::start);
+		Thread.sleep(warmupMillis);
+
+		AllocationSnapshot allocationBefore = new AllocationSnapshot(workers);
+		long start = System.nanoTime();
+		result.measuring = true;
+		Thread.sleep(measurementMillis);
+		result.measuring = false;
+		result.elapsedNanos = System.nanoTime() - start;
+		result.serverAllocatedBytes = new AllocationSnapshot(workers).allocatedSince(allocationBefore);
+
+		for (Worker worker : workers) {
+			worker.finish();
+		}
+		for (Worker worker : workers) {
+			worker.join();
+			if (worker.failure != null) {
+				throw new IllegalStateException("Load generator failed", worker.failure);
+			}
+		}
+		return result;
+	}
+
+	private byte[] encodeRequest(RequestKind kind) {
+		String host = "localhost:" + port;
+		String path = kind == RequestKind.EXCLUDED ? CONTEXT_PATH + EXCLUDED_PATH + "items" : CONTEXT_PATH + "/api/items";
+		String origin = kind == RequestKind.ALLOWED ? "http://" + host : "http://evil.example.org";
+		String request = "GET " + path + " HTTP/1.1\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "Origin: " + origin + "\r\n"
+				+ "Referer: " + origin + "/index.html\r\n"
+				+ "User-Agent: cors-filter-load-test\r\n"
+				+ "\r\n";
+		return request.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Counts and latencies of the requests sent while measuring, shared by all workers.
+	 */
+	static class Result {
+
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final LongAdder requests = new LongAdder();
+		final Map<Integer, LongAdder> requestsByStatus = new HashMap<>();
+		volatile boolean measuring;
+		long elapsedNanos;
+		long serverAllocatedBytes;
+
+		Result() {
+			for (int status : new int[] { 200, 403 }) {
+				requestsByStatus.put(status, new LongAdder());
+			}
+			requestsByStatus.put(0, new LongAdder());// any other status
+		}
+
+		double getThroughputPerSecond() {
+			return requests.sum() * 1e9 / elapsedNanos;
+		}
+
+		long getRequestsWithStatus(int status) {
+			return requestsByStatus.get(status).sum();
+		}
+
+		double getServerAllocatedBytesPerRequest() {
+			long count = requests.sum();
+			return count == 0 ? 0 : (double) serverAllocatedBytes / count;
+		}
+
+		private void record(int status, long latencyNanos) {
+			requests.increment();
+			LongAdder counter = requestsByStatus.get(status);
+			(counter == null ? requestsByStatus.get(0) : counter).increment();
+			latencies.record(latencyNanos);
+		}
+	}
+
+	private class Worker extends Thread {
+
+		private final Result result;
+		private final byte[][] schedule = new byte[SCHEDULE_LENGTH][];
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private volatile boolean finished;
+		private Throwable failure;
+		private Socket socket;
+		private OutputStream output;
+		private InputStream input;
+
+		Worker(int index, Result result) {
+			super("load-generator-" + index);
+			this.result = result;
+			Map<RequestKind, byte[]> requests = new HashMap<>();
+			int next = 0;
+			for (RequestKind kind : RequestKind.values()) {
+				byte[] request = requests.computeIfAbsent(kind, LoadGenerator.this::encodeRequest);
+				for (int i = 0; i < mix.getOrDefault(kind, 0); ++i) {
+					schedule[next++] = request;
+				}
+			}
+			Random random = new Random(index);
+			for (int i = schedule.length - 1; i > 0; --i) {
+				int j = random.nextInt(i + 1);
+				byte[] swapped = schedule[i];
+				schedule[i] = schedule[j];
+				schedule[j] = swapped;
+			}
+		}
+
+		void finish() {
+			finished = true;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; !finished; i = (i + 1) % schedule.length) {
+					if (socket == null) {
+						connect();
+					}
+					boolean measuring = result.measuring;
+					long start = System.nanoTime();
+					output.write(schedule[i]);
+					output.flush();
+					int status = readResponse();
+					if (measuring) {
+						result.record(status, System.nanoTime() - start);
+					}
+				}
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				disconnect();
+			}
+		}
+
+		private void connect() throws IOException {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress("localhost", port));
+			output = socket.getOutputStream();
+			input = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+		}
+
+		private void disconnect() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing more to send
+				}
+				socket = null;
+			}
+		}
+
+		/**
+		 * Reads one response, leaving the connection positioned at the next one, or closing it if the server asked to.
+		 *
+		 * @return the status code
+		 */
+		private int readResponse() throws IOException {
+			int length = readLine();
+			int status = length >= 12 ? parseInt(9, 12) : -1;
+			long contentLength = 0;
+			boolean chunked = false;
+			boolean close = false;
+			while ((length = readLine()) > 0) {
+				if (headerNameIs("Content-Length", length)) {
+					contentLength = parseInt("Content-Length:".length(), length);
+				} else if (headerNameIs("Transfer-Encoding", length)) {
+					chunked = true;
+				} else if (headerNameIs("Connection", length) && contains("close", length)) {
+					close = true;
+				}
+			}
+			if (chunked) {
+				long chunkLength;
+				while ((chunkLength = parseHex(readLine())) > 0) {
+					skip(chunkLength + 2);
+				}
+				while (readLine() > 0) {
+					// trailers
+				}
+			} else {
+				skip(contentLength);
+			}
+			if (close) {
+				disconnect();
+			}
+			return status;
+		}
+
+		private int readLine() throws IOException {
+			int length = 0;
+			for (int b; (b = input.read()) != '\n';) {
+				if (b < 0) {
+					throw new EOFException("Connection closed by server");
+				}
+				if (b != '\r' && length < buffer.length) {
+					buffer[length++] = (byte) b;
+				}
+			}
+			return length;
+		}
+
+		private void skip(long count) throws IOException {
+			for (long remaining = count; remaining > 0;) {
+				long skipped = input.skip(remaining);
+				if (skipped <= 0) {
+					if (input.read() < 0) {
+						throw new EOFException("Connection closed by server");
+					}
+					skipped = 1;
+				}
+				remaining -= skipped;
+			}
+		}
+
+		private boolean headerNameIs(String name, int length) {
+			if (length <= name.length() || buffer[name.length()] != ':') {
+				return false;
+			}
+			for (int i = 0; i < name.length(); ++i) {
+				if (Character.toLowerCase((char) buffer[i]) != Character.toLowerCase(name.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean contains(String value, int length) {
+			for (int start = 0; start + value.length() <= length; ++start) {
+				int i = 0;
+				while (i < value.length() && Character.toLowerCase((char) buffer[start + i]) == value.charAt(i)) {
+					++i;
+				}
+				if (i == value.length()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int parseInt(int start, int end) {
+			int value = 0;
+			for (int i = start; i < end; ++i) {
+				byte b = buffer[i];
+				if (b >= '0' && b <= '9') {
+					value = value * 10 + (b - '0');
+				}
+			}
+			return value;
+		}
+
+		private long parseHex(int length) {
+			long value = 0;
+			for (int i = 0; i < length; ++i) {
+				int digit = Character.digit(buffer[i], 16);
+				if (digit < 0) {
+					break;// chunk extension
+				}
+				value = value * 16 + digit;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * The bytes allocated so far by every live thread other than the load generator's, which are the server's.
+	 */
+	private static class AllocationSnapshot {
+
+		private final Map<Long, Long> allocatedBytesByThread = new HashMap<>();
+
+		AllocationSnapshot(List<Worker> workers) {
+			com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			long[] threadIds = threadBean.getAllThreadIds();
+			long[] allocatedBytes = threadBean.getThreadAllocatedBytes(threadIds);
+			for (int i = 0; i < threadIds.length; ++i) {
+				allocatedBytesByThread.put(threadIds[i], allocatedBytes[i]);
+			}
+			allocatedBytesByThread.remove(Thread.currentThread().getId());
+			for (Worker worker : workers) {
+				allocatedBytesByThread.remove(worker.getId());
+			}
+		}
+
+		long allocatedSince(AllocationSnapshot earlier) {
+			long total = 0;
+			for (Map.Entry<Long, Long> entry : allocatedBytesByThread.entrySet()) {
+				Long before = earlier.allocatedBytesByThread.get(entry.getKey());
+				if (before != null && before >= 0 && entry.getValue() >= 0) {
+					total += entry.getValue() - before;
+				}
+			}
+			return total;
+		}
+	}
+}
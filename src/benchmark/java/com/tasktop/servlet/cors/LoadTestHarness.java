@@ -0,0 +1,151 @@
+package com.tasktop.servlet.cors;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import com.tasktop.servlet.cors.LoadGenerator.RequestKind;
+
+/**
+ * Measures the cost of the filter inside a real container. Boots an embedded Jetty on localhost serving a trivial
+ * servlet, drives it with a {@link LoadGenerator} once without and once with the filter in front of the servlet, and
+ * reports throughput, latency percentiles and server-side allocation per request for both runs.
+ * <p>
+ * Options, all optional: {@code --threads 8 --warmup 5 --duration 10 --allowed 80 --rejected 10 --excluded 10}, with
+ * times in seconds and the mix in percent. Further init parameters for the filter may be given as
+ * {@code --init name=value}.
+ */
+public class LoadTestHarness {
+
+	private int threads = 8;
+	private long warmupSeconds = 5;
+	private long durationSeconds = 10;
+	private final Map<RequestKind, Integer> mix = new EnumMap<>(RequestKind.class);
+	private final Map<String, String> initParameters = new LinkedHashMap<>();
+
+	public static void main(String[] args) throws Exception {
+		new LoadTestHarness(args).run();
+	}
+
+	private LoadTestHarness(String[] args) {
+		mix.put(RequestKind.ALLOWED, 80);
+		mix.put(RequestKind.REJECTED, 10);
+		mix.put(RequestKind.EXCLUDED, 10);
+		initParameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX,
+				LoadGenerator.EXCLUDED_PATH);
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--warmup":
+				warmupSeconds = Long.parseLong(value);
+				break;
+			case "--duration":
+				durationSeconds = Long.parseLong(value);
+				break;
+			case "--allowed":
+				mix.put(RequestKind.ALLOWED, Integer.parseInt(value));
+				break;
+			case "--rejected":
+				mix.put(RequestKind.REJECTED, Integer.parseInt(value));
+				break;
+			case "--excluded":
+				mix.put(RequestKind.EXCLUDED, Integer.parseInt(value));
+				break;
+			case "--init":
+				int equals = value.indexOf('=');
+				initParameters.put(value.substring(0, equals), value.substring(equals + 1));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+	}
+
+	private void run() throws Exception {
+		System.out.printf("threads %d, warmup %ds, duration %ds, mix %s, init parameters %s%n", threads, warmupSeconds,
+				durationSeconds, mix, initParameters);
+		LoadGenerator.Result withoutFilter = runWith(false);
+		LoadGenerator.Result withFilter = runWith(true);
+
+		System.out.println();
+		System.out.printf("%-16s %12s %12s %10s %10s %10s %10s %8s %8s%n", "", "requests", "req/s", "p50 us",
+				"p99 us", "p99.9 us", "B/req", "200", "403");
+		printRow("without filter", withoutFilter);
+		printRow("with filter", withFilter);
+		System.out.printf("%-16s %12s %11.1f%% %10.1f %10.1f %10.1f %10.0f%n", "overhead", "",
+				100.0 * (withoutFilter.getThroughputPerSecond() - withFilter.getThroughputPerSecond())
+						/ withoutFilter.getThroughputPerSecond(),
+				difference(withFilter, withoutFilter, 0.5), difference(withFilter, withoutFilter, 0.99),
+				difference(withFilter, withoutFilter, 0.999),
+				withFilter.getServerAllocatedBytesPerRequest() - withoutFilter.getServerAllocatedBytesPerRequest());
+	}
+
+	private LoadGenerator.Result runWith(boolean filtered) throws Exception {
+		Server server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("localhost");
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath(LoadGenerator.CONTEXT_PATH);
+		context.addServlet(new ServletHolder(new OkServlet()), "/*");
+		if (filtered) {
+			FilterHolder filter = new FilterHolder(CorsHeaderScrutinyServletFilter.class);
+			filter.setInitParameters(initParameters);
+			context.addFilter(filter, "/*", EnumSet.of(DispatcherType.REQUEST));
+		}
+		server.setHandler(context);
+		server.start();
+		try {
+			System.out.printf("%s filter...%n", filtered ? "with" : "without");
+			return new LoadGenerator(connector.getLocalPort(), threads, mix).run(warmupSeconds * 1000,
+					durationSeconds * 1000);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void printRow(String label, LoadGenerator.Result result) {
+		System.out.printf("%-16s %12d %12.0f %10.1f %10.1f %10.1f %10.0f %8d %8d%n", label, result.requests.sum(),
+				result.getThroughputPerSecond(), micros(result, 0.5), micros(result, 0.99), micros(result, 0.999),
+				result.getServerAllocatedBytesPerRequest(), result.getRequestsWithStatus(200),
+				result.getRequestsWithStatus(403));
+	}
+
+	private static double difference(LoadGenerator.Result result, LoadGenerator.Result baseline, double quantile) {
+		return micros(result, quantile) - micros(baseline, quantile);
+	}
+
+	private static double micros(LoadGenerator.Result result, double quantile) {
+		return result.latencies.getValueAtQuantile(quantile) / 1000.0;
+	}
+
+	/**
+	 * Stands in for the application: answers every request with an empty 200 response.
+	 */
+	private static class OkServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentLength(0);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.tasktop.servlet.cors;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the average cost per request of a mix of nine reads to one write, with and without exempting the safe
+ * methods, so that the difference shows the work the exemption saves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadHeavyMixBenchmark {
+
+	private static final int READS_PER_WRITE = 9;
+
+	@Param({ "", "GET HEAD" })
+	public String exemptMethods;
+
+	private CorsHeaderScrutinyServletFilter filter;
+	private FakeHttpServletRequest[] requests;
+	private FakeHttpServletResponse response;
+	private FilterChain chain;
+	private int next;
+
+	@Setup
+	public void setUp(Blackhole blackhole) throws ServletException {
+		FakeFilterConfig config = new FakeFilterConfig()
+				.withInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX, "/api/public/ /static/");
+		if (!exemptMethods.isEmpty()) {
+			config.withInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS, exemptMethods);
+		}
+		filter = new CorsHeaderScrutinyServletFilter();
+		filter.init(config);
+		response = new FakeHttpServletResponse();
+		chain = (request, response) -> blackhole.consume(request);
+		requests = new FakeHttpServletRequest[READS_PER_WRITE + 1];
+		for (int i = 0; i < READS_PER_WRITE; ++i) {
+			requests[i] = sameOriginRequest("GET", "/context/api/items/" + i);
+		}
+		requests[READS_PER_WRITE] = sameOriginRequest("POST", "/context/api/items");
+	}
+
+	@Benchmark
+	public int doFilter() throws IOException, ServletException {
+		FakeHttpServletRequest request = requests[next];
+		next = next == requests.length - 1 ? 0 : next + 1;
+		filter.doFilter(request, response, chain);
+		return response.getStatus();
+	}
+
+	private static FakeHttpServletRequest sameOriginRequest(String method, String requestUri) {
+		return new FakeHttpServletRequest().withMethod(method)
+				.withPath("/context", requestUri)
+				.withHeader("Host", "app.example.com:8443")
+				.withHeader("Origin", "https://app.example.com:8443")
+				.withHeader("Referer", "https://app.example.com:8443/context/index.html");
+	}
+}
@@ -0,0 +1,70 @@
+package com.tasktop.servlet.cors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestPathMatcherBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int prefixCount;
+
+	/** Whether the paths are given as prefixes or as patterns such as {@code /api/service-1/*}{@code /public/**}. */
+	@Param({ "prefix", "pattern" })
+	public String kind;
+
+	private RequestPathMatcher matcher;
+	private FakeHttpServletRequest matchingRequest;
+	private FakeHttpServletRequest nonMatchingRequest;
+	private FakeHttpServletRequest encodedRequest;
+
+	@Setup
+	public void setUp() {
+		boolean patterns = kind.equals("pattern");
+		List<String> paths = new ArrayList<>();
+		for (int i = 0; i < prefixCount; ++i) {
+			paths.add("/api/service-" + i + (patterns ? "/*/public/**" : "/"));
+		}
+		matcher = patterns ? new RequestPathMatcher(new ArrayList<>(), paths) : new RequestPathMatcher(paths);
+		String lastPrefix = "/api/service-" + (prefixCount - 1) + "/";
+		String suffix = patterns ? "items/public/" : "";
+		matchingRequest = new FakeHttpServletRequest().withPath("/context",
+				"/context" + lastPrefix + suffix + "items/42");
+		nonMatchingRequest = new FakeHttpServletRequest().withPath("/context", "/context/api/other/items/42");
+		encodedRequest = new FakeHttpServletRequest().withPath("/context",
+				"/context" + lastPrefix + suffix + "caf%C3%A9");
+	}
+
+	@Benchmark
+	public boolean matching() {
+		return matcher.matchesRequest(matchingRequest);
+	}
+
+	@Benchmark
+	public boolean nonMatching() {
+		return matcher.matchesRequest(nonMatchingRequest);
+	}
+
+	@Benchmark
+	public boolean percentEncoded() {
+		return matcher.matchesRequest(encodedRequest);
+	}
+}
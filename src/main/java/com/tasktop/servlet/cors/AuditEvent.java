@@ -0,0 +1,67 @@
+package com.tasktop.servlet.cors;
+
+import java.time.Instant;
+
+/**
+ * A rejected, or in report-only mode would-be rejected, request as recorded in the audit log. Instances are slots of an
+ * {@link AuditRingBuffer}, filled in on request threads and reused once written, so they only ever hold references to
+ * strings the request already had.
+ */
+class AuditEvent {
+
+	long timestampMillis;
+	Verdict reason;
+	boolean enforced;
+	String method;
+	String path;
+	String host;
+	String forwardedHost;
+	String origin;
+	String referer;
+
+	void clear() {
+		reason = null;
+		method = null;
+		path = null;
+		host = null;
+		forwardedHost = null;
+		origin = null;
+		referer = null;
+	}
+
+	/**
+	 * Appends the event as a single line. Values come from request headers under the control of the client, so they
+	 * are quoted with any quote, backslash or control character escaped, and cannot forge further lines.
+	 */
+	void appendTo(StringBuilder line) {
+		line.append(Instant.ofEpochMilli(timestampMillis)).append(" reason=").append(reason);
+		if (!enforced) {
+			line.append(" report-only");
+		}
+		appendField(line, "method", method);
+		appendField(line, "path", path);
+		appendField(line, "host", host);
+		appendField(line, "forwarded-host", forwardedHost);
+		appendField(line, "origin", origin);
+		appendField(line, "referer", referer);
+		line.append('\n');
+	}
+
+	private static void appendField(StringBuilder line, String name, String value) {
+		if (value == null) {
+			return;
+		}
+		line.append(' ').append(name).append("=\"");
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				line.append('\\').append(c);
+			} else if (c < ' ' || c == 0x7f) {
+				line.append(String.format("\\u%04x", (int) c));
+			} else {
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+}
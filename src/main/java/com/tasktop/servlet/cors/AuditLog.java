@@ -0,0 +1,60 @@
+package com.tasktop.servlet.cors;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Records the requests rejected by {@link CorsHeaderScrutinyServletFilter}. Implementations are called on request
+ * threads and must neither block nor perform I/O there.
+ */
+interface AuditLog {
+
+	/**
+	 * Records nothing, so that the filter pays nothing for an audit log that is turned off.
+	 */
+	AuditLog DISABLED = new AuditLog() {
+
+		@Override
+		public void requestRejected(HttpServletRequest request, Verdict reason) {
+			// disabled
+		}
+
+		@Override
+		public void requestReported(HttpServletRequest request, Verdict reason) {
+			// disabled
+		}
+
+		@Override
+		public long getWrittenCount() {
+			return 0;
+		}
+
+		@Override
+		public long getDroppedCount() {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+			// disabled
+		}
+	};
+
+	void requestRejected(HttpServletRequest request, Verdict reason);
+
+	/**
+	 * Records a request that would have been rejected had the filter not been in report-only mode.
+	 */
+	void requestReported(HttpServletRequest request, Verdict reason);
+
+	long getWrittenCount();
+
+	/**
+	 * @return the number of rejected or reported requests that were not recorded because the log could not keep up
+	 */
+	long getDroppedCount();
+
+	/**
+	 * Writes out the requests recorded so far and releases the log's resources.
+	 */
+	void close();
+}
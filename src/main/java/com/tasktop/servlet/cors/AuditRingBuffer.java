@@ -0,0 +1,116 @@
+package com.tasktop.servlet.cors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free queue of {@link AuditEvent}s for many producers and a single consumer. Each slot carries a
+ * sequence number telling producers whether it is free and the consumer whether it is filled, so a producer claims a
+ * slot with a single compare-and-set and never waits for the consumer: when the buffer is full the event is refused.
+ * Once {@link #close() closed}, the buffer refuses every event, and the consumer polls until it has taken every event
+ * claimed before.
+ */
+class AuditRingBuffer {
+
+	static final long FULL = -1;
+
+	private static final long CLOSED = Long.MIN_VALUE;// set in the tail, so that claiming and closing cannot interleave
+
+	private final AuditEvent[] slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;// only touched by the consumer
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two of at least two, since with a single slot a filled slot would look free
+	 *            to the next producer
+	 */
+	AuditRingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive but was " + capacity);
+		}
+		int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+		slots = new AuditEvent[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) {
+			slots[i] = new AuditEvent();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Claims the next free slot for the calling producer, which fills in {@link #get(long)} and then calls
+	 * {@link #publish(long)}.
+	 *
+	 * @return the position of the slot, or {@link #FULL} if the buffer is full or closed
+	 */
+	long claim() {
+		for (;;) {
+			long position = tail.get();
+			if (position < 0) {
+				return FULL;// closed
+			}
+			long sequence = sequences.get((int) position & mask);
+			if (sequence < position) {
+				return FULL;// the consumer has not yet taken the event written a lap ago
+			}
+			if (sequence == position && tail.compareAndSet(position, position + 1)) {
+				return position;
+			}
+		}
+	}
+
+	AuditEvent get(long position) {
+		return slots[(int) position & mask];
+	}
+
+	/**
+	 * Hands a claimed and filled in slot over to the consumer.
+	 */
+	void publish(long position) {
+		sequences.lazySet((int) position & mask, position + 1);
+	}
+
+	/**
+	 * Refuses every event claimed from now on. The events claimed so far are still published and polled.
+	 */
+	void close() {
+		tail.getAndUpdate(position -> position | CLOSED);
+	}
+
+	/**
+	 * Must only be called from the consumer thread.
+	 *
+	 * @return {@code true} if the consumer has taken every event claimed so far, which after {@link #close()} means it
+	 *         will never see another one
+	 */
+	boolean isDrained() {
+		return (tail.get() & ~CLOSED) == head;
+	}
+
+	/**
+	 * Passes the next event to the consumer and frees its slot. Must only be called from the consumer thread.
+	 *
+	 * @return {@code false} if there was no event
+	 */
+	boolean poll(Consumer<AuditEvent> consumer) {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return false;
+		}
+		AuditEvent event = slots[index];
+		consumer.accept(event);
+		event.clear();
+		sequences.lazySet(index, head + slots.length);
+		++head;
+		return true;
+	}
+}
@@ -0,0 +1,69 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Arrays;
+
+/**
+ * A node of a character-level trie. Children are kept in arrays sorted by character, so a node costs two small arrays
+ * and finding a child is a binary search. A terminal node marks the end of an entry; since the tries built from these
+ * nodes answer whether any entry is a prefix of the input, nothing needs to be kept below a terminal node.
+ * <p>
+ * Nodes are only used while building a trie, which is then flattened into a {@link FlatCharTrie} for lookups.
+ */
+class CharTrieNode {
+	private static final char[] NO_LABELS = new char[0];
+	private static final CharTrieNode[] NO_CHILDREN = new CharTrieNode[0];
+
+	private char[] labels = NO_LABELS;
+	private CharTrieNode[] children = NO_CHILDREN;
+	private boolean terminal;
+
+	boolean isTerminal() {
+		return terminal;
+	}
+
+	void markTerminal() {
+		terminal = true;
+		labels = NO_LABELS;
+		children = NO_CHILDREN;
+	}
+
+	int childCount() {
+		return labels.length;
+	}
+
+	char labelAt(int index) {
+		return labels[index];
+	}
+
+	CharTrieNode childAt(int index) {
+		return children[index];
+	}
+
+	CharTrieNode getOrAddChild(char c) {
+		int index = Arrays.binarySearch(labels, c);
+		if (index >= 0) {
+			return children[index];
+		}
+		int insertionPoint = -(index + 1);
+		CharTrieNode child = new CharTrieNode();
+		labels = insert(labels, insertionPoint, c);
+		children = insert(children, insertionPoint, child);
+		return child;
+	}
+
+	private static char[] insert(char[] array, int index, char value) {
+		char[] result = new char[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+
+	private static CharTrieNode[] insert(CharTrieNode[] array, int index, CharTrieNode value) {
+		CharTrieNode[] result = new CharTrieNode[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+}
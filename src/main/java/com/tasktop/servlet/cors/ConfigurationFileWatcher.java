@@ -0,0 +1,68 @@
+package com.tasktop.servlet.cors;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a configuration file on a daemon thread and runs a callback on that thread once the file has been created
+ * or modified and then left alone for the debounce delay, so that a burst of writes results in a single reload.
+ */
+class ConfigurationFileWatcher implements Closeable {
+
+	private final Path file;
+	private final long debounceMillis;
+	private final Runnable onChange;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	ConfigurationFileWatcher(Path file, long debounceMillis, Runnable onChange) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.debounceMillis = debounceMillis;
+		this.onChange = onChange;
+		this.watchService = this.file.getFileSystem().newWatchService();
+		this.file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		this.thread = new Thread(this::watch, "cors-filter-configuration-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void watch() {
+		boolean changed = false;
+		try {
+			for (;;) {
+				WatchKey key = changed ? watchService.poll(debounceMillis, TimeUnit.MILLISECONDS) : watchService.take();
+				if (key == null) {
+					changed = false;
+					onChange.run();
+					continue;
+				}
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW || file.getFileName().equals(event.context())) {
+						changed = true;
+					}
+				}
+				key.reset();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+		thread.interrupt();
+	}
+}
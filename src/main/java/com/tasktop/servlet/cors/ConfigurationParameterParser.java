@@ -1,28 +1,177 @@
 package com.tasktop.servlet.cors;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
 
 public class ConfigurationParameterParser {
-	private static final String PATH_DELIMITER_PATTERN = "[,\\s]+";
 	
 	static List<String> parseExclusionPaths(String paths) {
-		return Arrays.asList(paths.split(PATH_DELIMITER_PATTERN))
-				.stream()
-				.map(String::trim)
-				.filter(s -> !s.isEmpty())
-				.map(prependSlashIfNotPresent())
-				.collect(Collectors.toList());
-	}
-
-	private static Function<String, String> prependSlashIfNotPresent() {
-		return path -> {
-			if(path.startsWith("/")) {
-				return path;
+		return parseExclusionPaths(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX, paths);
+	}
+
+	/**
+	 * Normalizes the paths to start with a slash, and compares them decoded, as requests are matched: of paths that
+	 * decode alike only the least is kept, and a path whose decoded form starts with that of another one is dropped,
+	 * as it matches no request that the other one does not.
+	 *
+	 * @return the remaining paths as given, in ascending order of their decoded forms
+	 * @throws IllegalArgumentException
+	 *             if a path contains a query or fragment delimiter, a control character or a malformed escape
+	 */
+	static List<String> parseExclusionPaths(String parameterName, String paths) {
+		TreeMap<String, String> pathsByDecoded = new TreeMap<>();
+		for (String path : parseList(paths)) {
+			String normalized = checkValidPath(parameterName, path.startsWith("/") ? path : "/" + path);
+			pathsByDecoded.merge(RequestPathMatcher.decodePath(normalized), normalized,
+					(kept, other) -> kept.compareTo(other) <= 0 ? kept : other);
+		}
+		List<String> result = new ArrayList<>(pathsByDecoded.size());
+		String lastDecoded = null;
+		for (Map.Entry<String, String> entry : pathsByDecoded.entrySet()) {
+			// sorted order puts a prefix right before the paths it subsumes
+			if (lastDecoded == null || !entry.getKey().startsWith(lastDecoded)) {
+				result.add(entry.getValue().intern());
+				lastDecoded = entry.getKey();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Normalizes the patterns to start with a slash, and drops duplicates.
+	 *
+	 * @return the patterns in ascending order
+	 * @throws IllegalArgumentException
+	 *             if a pattern is not a valid path, or contains {@code **} other than as a whole segment
+	 */
+	static List<String> parseExclusionPatterns(String parameterName, String patterns) {
+		TreeSet<String> normalized = new TreeSet<>();
+		for (String pattern : parseList(patterns)) {
+			String path = checkValidPath(parameterName, pattern.startsWith("/") ? pattern : "/" + pattern);
+			for (String segment : path.split("/", -1)) {
+				if (segment.contains(PathPatternAutomaton.ANY_DEPTH) && !segment.equals(PathPatternAutomaton.ANY_DEPTH)) {
+					throw new IllegalArgumentException(String.format(
+							"Init parameter %s has invalid pattern \"%s\": '**' must be a whole path segment",
+							parameterName, pattern));
+				}
+			}
+			normalized.add(path);
+		}
+		return new ArrayList<>(normalized);
+	}
+
+	static List<String> parseTrustedOrigins(String origins) {
+		return parseList(origins);
+	}
+
+	static List<String> parseVirtualHosts(String hosts) {
+		return parseList(hosts);
+	}
+
+	/**
+	 * @return the comma or whitespace separated values, leaving out empty ones
+	 */
+	static List<String> parseList(String values) {
+		List<String> list = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= values.length(); ++i) {
+			if (i == values.length() || isDelimiter(values.charAt(i))) {
+				if (start >= 0) {
+					list.add(values.substring(start, i));
+					start = -1;
+				}
+			} else if (start < 0) {
+				start = i;
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Delimits values at commas and at whitespace as understood by {@link String#trim()}.
+	 */
+	private static boolean isDelimiter(char c) {
+		return c == ',' || c <= ' ';
+	}
+
+	private static String checkValidPath(String parameterName, String path) {
+		for (int i = 0; i < path.length(); ++i) {
+			char c = path.charAt(i);
+			if (c == '?' || c == '#' || c == 0x7f) {
+				throw new IllegalArgumentException(String.format(
+						"Init parameter %s has invalid path \"%s\": paths must not contain '%s'", parameterName, path, c));
+			}
+			if (c == '%' && (i + 2 >= path.length() || Character.digit(path.charAt(i + 1), 16) < 0
+					|| Character.digit(path.charAt(i + 2), 16) < 0)) {
+				throw new IllegalArgumentException(String.format(
+						"Init parameter %s has invalid path \"%s\": '%%' must be followed by two hexadecimal digits",
+						parameterName, path));
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * @param parameters
+	 *            looks up the value of a parameter by name, or returns {@code null} if it is not given
+	 * @param parser
+	 *            parses the value given the parameter name and value
+	 */
+	static <T> T parseParameter(UnaryOperator<String> parameters, String name, BiFunction<String, String, T> parser,
+			T defaultValue) {
+		String value = parameters.apply(name);
+		return value == null ? defaultValue : parser.apply(name, value);
+	}
+
+	static int parseNonNegativeInteger(String parameterName, String value) {
+		try {
+			int parsed = Integer.parseInt(value.trim());
+			if (parsed >= 0) {
+				return parsed;
 			}
-			return "/" + path;
-		};
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		throw new IllegalArgumentException(
+				String.format("Init parameter %s must be a non-negative integer but was \"%s\"", parameterName, value));
+	}
+
+	static int parsePositiveInteger(String parameterName, String value) {
+		int parsed = parseNonNegativeInteger(parameterName, value);
+		if (parsed == 0) {
+			throw new IllegalArgumentException(
+					String.format("Init parameter %s must be a positive integer but was \"%s\"", parameterName, value));
+		}
+		return parsed;
+	}
+
+	static double parseFraction(String parameterName, String value) {
+		try {
+			double parsed = Double.parseDouble(value.trim());
+			if (parsed >= 0 && parsed <= 1) {
+				return parsed;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException(
+				String.format("Init parameter %s must be a number from 0 to 1 but was \"%s\"", parameterName, value));
+	}
+
+	static boolean parseBoolean(String parameterName, String value) {
+		String trimmed = value.trim();
+		if (trimmed.equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (trimmed.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException(
+				String.format("Init parameter %s must be true or false but was \"%s\"", parameterName, value));
 	}
 }
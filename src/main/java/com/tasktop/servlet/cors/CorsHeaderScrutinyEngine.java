@@ -0,0 +1,198 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Scrutinizes the Origin and Referer headers of requests against the effective host and the trusted origins,
+ * independently of the Servlet API. {@link CorsHeaderScrutinyServletFilter} adapts it to servlet requests; other
+ * pipelines pass their own {@link HeaderAccessor}, e.g. {@link HeaderAccessor#VALUE_LISTS}.
+ * <p>
+ * Path exclusions and preflight answers concern the request rather than its headers, and are left to the adapter.
+ * An engine is immutable and may be shared between threads.
+ */
+public final class CorsHeaderScrutinyEngine {
+
+	static final String HEADER_HOST = "Host";
+	static final String HEADER_X_FORWARDED_HOST = "X-Forwarded-Host";
+	static final String HEADER_FORWARDED = "Forwarded";
+	static final String HEADER_ORIGIN = "Origin";
+	static final String HEADER_REFERER = "Referer";
+	static final String HEADER_SEC_FETCH_SITE = "Sec-Fetch-Site";
+
+	private static final String FETCH_SITE_SAME_ORIGIN = "same-origin";
+	private static final String FETCH_SITE_NONE = "none";
+	private static final String FETCH_SITE_CROSS_SITE = "cross-site";
+
+	private final ScrutinyPolicy policy;
+
+	CorsHeaderScrutinyEngine(ScrutinyPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * @param parameters
+	 *            the configuration, using the names of the init parameters of {@link CorsHeaderScrutinyServletFilter}
+	 * @throws IllegalArgumentException
+	 *             if a parameter has an invalid value
+	 */
+	public static CorsHeaderScrutinyEngine fromParameters(Map<String, String> parameters) {
+		return ScrutinyPolicy.fromParameters(parameters::get).getEngine();
+	}
+
+	public <R> Verdict check(R request, HeaderAccessor<R> headers) {
+		return checkHeaders(getHostPolicy(request, headers), request, headers);
+	}
+
+	/**
+	 * @return a function giving the verdict on a request, for pipelines composed of functions
+	 */
+	public <R> Function<R, Verdict> asFunction(HeaderAccessor<R> headers) {
+		return request -> check(request, headers);
+	}
+
+	/**
+	 * Reads the effective host only when virtual hosts are configured, so that other deployments do not look at the
+	 * Host header of requests that are excluded or carry no Origin or Referer.
+	 */
+	<R> HostPolicy getHostPolicy(R request, HeaderAccessor<R> headers) {
+		return policy.hasVirtualHosts()
+				? policy.getHostPolicy(policy.getIdnHostNormalizer().normalize(getEffectiveHostHeader(request, headers)))
+				: policy.getDefaultHostPolicy();
+	}
+
+	<R> Verdict checkHeaders(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers) {
+		Verdict verdict = checkFetchMetadata(hostPolicy, request, headers);
+		if (verdict != null) {
+			return verdict;
+		}
+		verdict = checkOrigin(hostPolicy, request, headers);
+		if (verdict.isAllowed()) {
+			verdict = checkReferer(hostPolicy, request, headers);
+		}
+		return verdict;
+	}
+
+	/**
+	 * Decides from the Sec-Fetch-Site header, which browsers set and scripts cannot, where it settles the matter with a
+	 * string comparison: {@code same-origin} and {@code none} (a navigation the user started) are allowed, and
+	 * {@code cross-site} is rejected unless the host trusts other origins or the request carries neither Origin nor
+	 * Referer, which has always been allowed. Anything else, such as {@code same-site} or an older browser sending no
+	 * such header, is left to the Origin and Referer headers.
+	 *
+	 * @return the verdict, or {@code null} if Fetch Metadata is disabled or does not settle it
+	 */
+	<R> Verdict checkFetchMetadata(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers) {
+		if (!policy.isFetchMetadataEnabled()) {
+			return null;
+		}
+		String site = SingleHeaderAccessor.read(headers, request, HEADER_SEC_FETCH_SITE);
+		if (site == null || site == SingleHeaderAccessor.REPEATED) {
+			return null;
+		}
+		if (site.equals(FETCH_SITE_SAME_ORIGIN) || site.equals(FETCH_SITE_NONE)) {
+			return Verdict.ALLOWED;
+		}
+		if (site.equals(FETCH_SITE_CROSS_SITE) && hostPolicy.getTrustedOrigins().isEmpty()) {
+			return SingleHeaderAccessor.read(headers, request, HEADER_ORIGIN) == null
+					&& SingleHeaderAccessor.read(headers, request, HEADER_REFERER) == null ? Verdict.ALLOWED : Verdict.CROSS_SITE;
+		}
+		return null;
+	}
+
+	<R> Verdict checkOrigin(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers) {
+		return checkUriHeader(hostPolicy, request, headers, HEADER_ORIGIN);
+	}
+
+	<R> Verdict checkReferer(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers) {
+		return checkUriHeader(hostPolicy, request, headers, HEADER_REFERER);
+	}
+
+	private <R> Verdict checkUriHeader(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers,
+			String headerName) {
+		String headerValue = SingleHeaderAccessor.read(headers, request, headerName);
+		if (headerValue == null) {
+			return Verdict.ALLOWED;
+		}
+		if (headerValue == SingleHeaderAccessor.REPEATED) {
+			return Verdict.DUPLICATE_HEADER;
+		}
+		return validateUriHeader(hostPolicy, request, headers, headerValue);
+	}
+
+	private <R> Verdict validateUriHeader(HostPolicy hostPolicy, R request, HeaderAccessor<R> headers,
+			String headerValue) {
+		if (isBlank(headerValue)) {
+			return Verdict.EMPTY_HEADER;
+		}
+		String hostHeader = SingleHeaderAccessor.read(headers, request, HEADER_HOST);
+		String effectiveHostHeader = getEffectiveHostHeader(request, headers, hostHeader);
+		if (effectiveHostHeader == SingleHeaderAccessor.REPEATED || hostHeader == SingleHeaderAccessor.REPEATED) {
+			return Verdict.DUPLICATE_HEADER;
+		}
+		if (hostHeader == null) {
+			return Verdict.MISSING_HOST;
+		}
+		if (isBlank(effectiveHostHeader)) {
+			return Verdict.EMPTY_HEADER;
+		}
+		return checkHost(hostPolicy, headerValue, policy.getIdnHostNormalizer().normalize(effectiveHostHeader));
+	}
+
+	private Verdict checkHost(HostPolicy hostPolicy, String headerValue, String hostHeader) {
+		HostVerdictCache hostVerdictCache = policy.getHostVerdictCache();
+		Boolean allowed = hostVerdictCache.get(headerValue, hostHeader);
+		if (allowed == null) {
+			allowed = isTrustedHost(hostPolicy.getTrustedOrigins(), headerValue, hostHeader);
+			hostVerdictCache.put(headerValue, hostHeader, allowed);
+		}
+		return allowed ? Verdict.ALLOWED : Verdict.HOST_MISMATCH;
+	}
+
+	private boolean isTrustedHost(TrustedOrigins trustedOrigins, String headerValue, String hostHeader) {
+		long host = UriHostScanner.findHost(headerValue);
+		return UriHostScanner.isSameHost(headerValue, host, hostHeader) || (host != UriHostScanner.NO_HOST
+				&& trustedOrigins.contains(headerValue, UriHostScanner.hostStart(host), UriHostScanner.hostEnd(host)));
+	}
+
+	<R> String getEffectiveHostHeader(R request, HeaderAccessor<R> headers) {
+		return getEffectiveHostHeader(request, headers, SingleHeaderAccessor.read(headers, request, HEADER_HOST));
+	}
+
+	/**
+	 * Without trusted proxies, the X-Forwarded-Host header is believed from any peer. With them, forwarding headers
+	 * are only believed from a trusted peer: the host in the Forwarded header that trusted proxies vouch for, if the
+	 * header is given, otherwise the X-Forwarded-Host header.
+	 *
+	 * @return the host the client asked for, falling back to the Host header, which may be {@code null} or
+	 *         {@link SingleHeaderAccessor#REPEATED} like any of the headers read
+	 */
+	private <R> String getEffectiveHostHeader(R request, HeaderAccessor<R> headers, String hostHeader) {
+		Optional<TrustedProxies> trustedProxies = policy.getTrustedProxies();
+		if (trustedProxies.isPresent()) {
+			if (!trustedProxies.get().contains(headers.getRemoteAddress(request))) {
+				return hostHeader;
+			}
+			String forwardedHeader = SingleHeaderAccessor.read(headers, request, HEADER_FORWARDED);
+			if (forwardedHeader != null) {
+				if (forwardedHeader == SingleHeaderAccessor.REPEATED) {
+					return forwardedHeader;
+				}
+				String forwardedHost = ForwardedHeader.findHost(forwardedHeader, trustedProxies.get());
+				return forwardedHost == null ? hostHeader : forwardedHost;
+			}
+		}
+		String forwardedHostHeader = SingleHeaderAccessor.read(headers, request, HEADER_X_FORWARDED_HOST);
+		return forwardedHostHeader == null ? hostHeader : forwardedHostHeader;
+	}
+
+	private boolean isBlank(String headerValue) {
+		for (int i = 0; i < headerValue.length(); ++i) {
+			if (headerValue.charAt(i) > ' ') {
+				return false;// same notion of whitespace as String.trim()
+			}
+		}
+		return true;
+	}
+}
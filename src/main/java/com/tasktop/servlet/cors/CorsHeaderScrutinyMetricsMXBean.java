@@ -0,0 +1,87 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Map;
+
+/**
+ * Exposes the metrics of a {@link CorsHeaderScrutinyServletFilter} over JMX when the
+ * {@value CorsHeaderScrutinyServletFilter#INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME} init parameter is given.
+ */
+public interface CorsHeaderScrutinyMetricsMXBean {
+
+	/**
+	 * @return the number of requests passed on unscrutinized because of their method
+	 */
+	long getExemptRequestCount();
+
+	long getExcludedRequestCount();
+
+	long getAllowedRequestCount();
+
+	long getRejectedRequestCount();
+
+	/**
+	 * @return the number of scrutinized requests whose verdict the Sec-Fetch-Site header gave alone
+	 */
+	long getFetchMetadataDecisionCount();
+
+	/**
+	 * @return the number of scrutinized requests whose verdict took the Origin and Referer headers
+	 */
+	long getOriginAndRefererDecisionCount();
+
+	/**
+	 * @return the number of requests passed on in report-only mode that would otherwise have been rejected
+	 */
+	long getReportedRequestCount();
+
+	/**
+	 * @return the number of requests passed on unscrutinized in report-only mode because they were not sampled
+	 */
+	long getNotSampledRequestCount();
+
+	/**
+	 * @return the number of allowed preflight requests answered by the filter rather than passed on
+	 */
+	long getAnsweredPreflightCount();
+
+	/**
+	 * @return the number of rejected requests keyed by the reason for their rejection
+	 */
+	Map<String, Long> getRejectedRequestCountByReason();
+
+	/**
+	 * @return the number of requests reported in report-only mode keyed by the reason they would have been rejected
+	 */
+	Map<String, Long> getReportedRequestCountByReason();
+
+	long getHostVerdictCacheHitCount();
+
+	long getHostVerdictCacheMissCount();
+
+	long getAuditLogWrittenCount();
+
+	/**
+	 * @return the number of rejected requests left out of the audit log because it could not keep up
+	 */
+	long getAuditLogDroppedCount();
+
+	long getPolicyReloadCount();
+
+	long getPolicyReloadFailureCount();
+
+	/**
+	 * @return the time it took to build the policy on the last successful reload of the configuration file
+	 */
+	long getLastPolicyReloadNanos();
+
+	/**
+	 * @return the number of requests whose scrutiny time was recorded, zero unless the latency histogram is enabled
+	 */
+	long getLatencySampleCount();
+
+	long getLatencyNanos50thPercentile();
+
+	long getLatencyNanos99thPercentile();
+
+	long getLatencyNanos999thPercentile();
+}
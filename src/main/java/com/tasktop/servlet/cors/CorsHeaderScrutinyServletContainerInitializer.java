@@ -0,0 +1,66 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterRegistration;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+
+/**
+ * Registers {@link CorsHeaderScrutinyServletFilter} in Servlet 3.0 and later containers without a {@code web.xml}
+ * entry. It does nothing unless the web application names the URL patterns to filter in the
+ * {@value #CONTEXT_PARAM_NAME_URL_PATTERNS} context parameter; other context parameters starting with
+ * {@value #CONTEXT_PARAM_NAME_PREFIX} become init parameters of the filter.
+ * <p>
+ * The filter is registered with async support, so it may be mapped in front of asynchronous servlets, and ahead of
+ * the filters declared in {@code web.xml}.
+ */
+public class CorsHeaderScrutinyServletContainerInitializer implements ServletContainerInitializer {
+
+	static final String FILTER_NAME = "CorsHeaderScrutinyServletFilter";
+	static final String CONTEXT_PARAM_NAME_PREFIX = "com.tasktop.servlet.cors.";
+	static final String CONTEXT_PARAM_NAME_URL_PATTERNS = CONTEXT_PARAM_NAME_PREFIX + "url-patterns";
+
+	@Override
+	public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+		String urlPatterns = servletContext.getInitParameter(CONTEXT_PARAM_NAME_URL_PATTERNS);
+		if (urlPatterns == null) {
+			return;
+		}
+		Map<String, String> initParameters = new LinkedHashMap<>();
+		for (String name : Collections.list(servletContext.getInitParameterNames())) {
+			if (name.startsWith(CONTEXT_PARAM_NAME_PREFIX) && !name.equals(CONTEXT_PARAM_NAME_URL_PATTERNS)) {
+				initParameters.put(name.substring(CONTEXT_PARAM_NAME_PREFIX.length()), servletContext.getInitParameter(name));
+			}
+		}
+		List<String> patterns = ConfigurationParameterParser.parseList(urlPatterns);
+		if (register(servletContext, initParameters, patterns.toArray(new String[0])) == null) {
+			servletContext.log(String.format("Filter %s is already registered, not registering it again", FILTER_NAME));
+		}
+	}
+
+	/**
+	 * Registers the filter programmatically, e.g. from a {@code ServletContextListener} or another
+	 * {@link ServletContainerInitializer}.
+	 *
+	 * @return the registration, or {@code null} if a filter named {@value #FILTER_NAME} is already registered
+	 */
+	public static FilterRegistration.Dynamic register(ServletContext servletContext, Map<String, String> initParameters,
+			String... urlPatterns) {
+		FilterRegistration.Dynamic registration = servletContext.addFilter(FILTER_NAME,
+				CorsHeaderScrutinyServletFilter.class);
+		if (registration == null) {
+			return null;
+		}
+		registration.setAsyncSupported(true);
+		registration.setInitParameters(initParameters);
+		registration.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), false, urlPatterns);
+		return registration;
+	}
+}
@@ -15,16 +15,32 @@
  *******************************************************************************/
 package com.tasktop.servlet.cors;
 
+import static com.tasktop.servlet.cors.ConfigurationParameterParser.parseParameter;
+
 import java.io.IOException;
-import java.net.URI;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.function.UnaryOperator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -34,98 +50,510 @@ import javax.servlet.http.HttpServletResponse;
 //based on https://www.owasp.org/index.php/CORS_OriginHeaderScrutiny
 public class CorsHeaderScrutinyServletFilter implements Filter {
 
-	private static final String HEADER_HOST = "Host";
-	private static final String HEADER_X_FORWARDED_HOST = "X-Forwarded-Host";
-	private static final String HEADER_ORIGIN = "Origin";
-	private static final String HEADER_REFERER = "Referer";
+	private static final String HEADER_CONNECTION = "Connection";
+	private static final String HEADER_TRANSFER_ENCODING = "Transfer-Encoding";
+	
+	private static final String CONNECTION_CLOSE = "close";
+	
+	private static final String FORBIDDEN_MESSAGE = "Forbidden";// don't disclose the reason
+	
+	private static final HeaderAccessor<HttpServletRequest> SERVLET_HEADERS = new SingleHeaderAccessor<
+			HttpServletRequest>() {
+
+		@Override
+		public String getSingleHeader(HttpServletRequest request, String name) {
+			Enumeration<String> values = request.getHeaders(name);
+			if (values == null || !values.hasMoreElements()) {
+				return null;
+			}
+			String value = values.nextElement();
+			return values.hasMoreElements() ? REPEATED : value;
+		}
+
+		@Override
+		public String getFirstHeader(HttpServletRequest request, String name) {
+			return request.getHeader(name);
+		}
+
+		@Override
+		public boolean isHeaderRepeated(HttpServletRequest request, String name) {
+			Enumeration<String> values = request.getHeaders(name);
+			if (values == null || !values.hasMoreElements()) {
+				return false;
+			}
+			values.nextElement();
+			return values.hasMoreElements();
+		}
+
+		@Override
+		public String getRemoteAddress(HttpServletRequest request) {
+			return request.getRemoteAddr();
+		}
+	};
 	
 	static final String INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX = "path-exclusion-prefix";
+	static final String INIT_PARAM_NAME_PATH_EXCLUSION_PATTERN = "path-exclusion-pattern";
+	static final String INIT_PARAM_NAME_TRUSTED_ORIGINS = "trusted-origins";
+	static final String INIT_PARAM_NAME_VIRTUAL_HOSTS = "virtual-hosts";
+	static final String INIT_PARAM_NAME_EXEMPT_METHODS = "exempt-methods";
+	static final String INIT_PARAM_NAME_FETCH_METADATA = "fetch-metadata";
+	static final String INIT_PARAM_NAME_TRUSTED_PROXIES = "trusted-proxies";
+	static final String INIT_PARAM_NAME_REJECTION_RESPONSE_DIRECT = "rejection-response-direct";
+	static final String INIT_PARAM_NAME_REJECTION_RESPONSE_BODY = "rejection-response-body";
+	static final String INIT_PARAM_NAME_REJECTION_RESPONSE_CONTENT_TYPE = "rejection-response-content-type";
+	static final String INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE = "host-verdict-cache-size";
+	static final String INIT_PARAM_NAME_METRICS_ENABLED = "metrics-enabled";
+	static final String INIT_PARAM_NAME_METRICS_LATENCY_HISTOGRAM = "metrics-latency-histogram";
+	static final String INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME = "metrics-jmx-object-name";
+	static final String INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS = "preflight-allowed-methods";
+	static final String INIT_PARAM_NAME_PREFLIGHT_ALLOWED_HEADERS = "preflight-allowed-headers";
+	static final String INIT_PARAM_NAME_PREFLIGHT_ALLOW_CREDENTIALS = "preflight-allow-credentials";
+	static final String INIT_PARAM_NAME_PREFLIGHT_MAX_AGE = "preflight-max-age";
+	static final String INIT_PARAM_NAME_AUDIT_LOG_FILE = "audit-log-file";
+	static final String INIT_PARAM_NAME_AUDIT_LOG_BUFFER_SIZE = "audit-log-buffer-size";
+	static final String INIT_PARAM_NAME_AUDIT_LOG_MAX_FILE_SIZE = "audit-log-max-file-size";
+	static final String INIT_PARAM_NAME_AUDIT_LOG_MAX_BACKUP_FILES = "audit-log-max-backup-files";
+	static final String INIT_PARAM_NAME_REPORT_ONLY = "report-only";
+	static final String INIT_PARAM_NAME_REPORT_ONLY_SAMPLE_RATE = "report-only-sample-rate";
+	static final String INIT_PARAM_NAME_REJECTION_RATE_LIMIT = "rejection-rate-limit";
+	static final String INIT_PARAM_NAME_REJECTION_RATE_BURST = "rejection-rate-burst";
+	static final String INIT_PARAM_NAME_REJECTION_BLOCK_MILLIS = "rejection-block-millis";
+	static final String INIT_PARAM_NAME_REJECTION_RATE_LIMITER_SIZE = "rejection-rate-limiter-size";
+	static final String INIT_PARAM_NAME_CONFIG_FILE = "config-file";
+	static final String INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS = "config-file-reload-delay-millis";
+
+	/**
+	 * Read once when the filter starts, from the configuration file like any other parameter, but not reloaded with it.
+	 */
+	static final List<String> STARTUP_PARAMETER_NAMES = Collections.unmodifiableList(Arrays.asList(
+			INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS, INIT_PARAM_NAME_METRICS_ENABLED,
+			INIT_PARAM_NAME_METRICS_LATENCY_HISTOGRAM, INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME,
+			INIT_PARAM_NAME_AUDIT_LOG_FILE, INIT_PARAM_NAME_AUDIT_LOG_BUFFER_SIZE,
+			INIT_PARAM_NAME_AUDIT_LOG_MAX_FILE_SIZE, INIT_PARAM_NAME_AUDIT_LOG_MAX_BACKUP_FILES,
+			INIT_PARAM_NAME_REJECTION_RATE_LIMIT,
+			INIT_PARAM_NAME_REJECTION_RATE_BURST, INIT_PARAM_NAME_REJECTION_BLOCK_MILLIS,
+			INIT_PARAM_NAME_REJECTION_RATE_LIMITER_SIZE));
+	
+	private static final int DEFAULT_CONFIG_FILE_RELOAD_DELAY_MILLIS = 500;
+	private static final int DEFAULT_AUDIT_LOG_BUFFER_SIZE = 8192;
+	private static final int DEFAULT_AUDIT_LOG_MAX_FILE_SIZE = 10 * 1024 * 1024;
+	private static final int DEFAULT_AUDIT_LOG_MAX_BACKUP_FILES = 5;
+	private static final int DEFAULT_REJECTION_BLOCK_MILLIS = 10_000;
+	private static final int DEFAULT_REJECTION_RATE_LIMITER_SIZE = 4096;
+	
+	/**
+	 * Replaced as a whole when the configuration file is reloaded; read once per request.
+	 */
+	private volatile ScrutinyPolicy policy = ScrutinyPolicy.DEFAULT;
+	
+	private FilterConfig filterConfig;
+	
+	/**
+	 * The values of the {@link #STARTUP_PARAMETER_NAMES} in effect, to tell when a reloaded file changes one of them.
+	 */
+	private Map<String, String> startupParameters = Collections.emptyMap();
+	
+	private Optional<ConfigurationFileWatcher> configurationFileWatcher = Optional.empty();
+	
+	private FilterMetrics metrics = FilterMetrics.DISABLED;
+	
+	private AuditLog auditLog = AuditLog.DISABLED;
+	
+	/**
+	 * Configured at startup only, but cleared whenever a configuration reload replaces the policy, since a pair blocked
+	 * under the previous policy may be trusted by the new one.
+	 */
+	private RejectionRateLimiter rejectionRateLimiter = RejectionRateLimiter.DISABLED;
+	
+	private boolean latencyRecorded;
 	
-	private Optional<RequestPathMatcher> requestExclusionMatcher = Optional.empty();
+	private Optional<ObjectName> metricsObjectName = Optional.empty();
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
-		requestExclusionMatcher = Optional.ofNullable(filterConfig.getInitParameter(INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX))
-				.map(ConfigurationParameterParser::parseExclusionPaths)
-				.map(RequestPathMatcher::new);
+		this.filterConfig = filterConfig;
+		Optional<Path> configurationFile = Optional.ofNullable(filterConfig.getInitParameter(INIT_PARAM_NAME_CONFIG_FILE))
+				.map(String::trim)
+				.map(Paths::get);
+		UnaryOperator<String> parameters;
+		int reloadDelayMillis;
+		try {
+			parameters = configurationFile.isPresent() ? loadParameters(configurationFile.get())
+					: filterConfig::getInitParameter;
+			reloadDelayMillis = parseParameter(parameters, INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS,
+					ConfigurationParameterParser::parseNonNegativeInteger, DEFAULT_CONFIG_FILE_RELOAD_DELAY_MILLIS);
+			rejectionRateLimiter = createRejectionRateLimiter(parameters);
+			policy = ScrutinyPolicy.fromParameters(parameters);
+		} catch (IllegalArgumentException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new ServletException("Cannot read configuration file " + configurationFile.get(), e);
+		}
+		// containers do not destroy a filter whose init failed, so whatever was opened is released here
+		try {
+			auditLog = createAuditLog(parameters);
+			metrics = createMetrics(parameters);
+			latencyRecorded = metrics.isLatencyRecorded();
+			String objectName = parameters.apply(INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME);
+			if (objectName != null) {
+				registerMetricsMBean(objectName.trim());
+			}
+			if (configurationFile.isPresent()) {
+				startupParameters = readStartupParameters(parameters);
+				watchConfigurationFile(configurationFile.get(), reloadDelayMillis);
+			}
+		} catch (IllegalArgumentException e) {
+			destroy();
+			throw new ServletException(e.getMessage(), e);
+		} catch (ServletException | RuntimeException e) {
+			destroy();
+			throw e;
+		}
 	}
-	
+
+	private AuditLog createAuditLog(UnaryOperator<String> parameters) throws ServletException {
+		String file = parameters.apply(INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		if (file == null) {
+			return AuditLog.DISABLED;
+		}
+		int bufferSize = parseParameter(parameters, INIT_PARAM_NAME_AUDIT_LOG_BUFFER_SIZE,
+				ConfigurationParameterParser::parsePositiveInteger, DEFAULT_AUDIT_LOG_BUFFER_SIZE);
+		int maxFileSize = parseParameter(parameters, INIT_PARAM_NAME_AUDIT_LOG_MAX_FILE_SIZE,
+				ConfigurationParameterParser::parsePositiveInteger, DEFAULT_AUDIT_LOG_MAX_FILE_SIZE);
+		int maxBackupFiles = parseParameter(parameters, INIT_PARAM_NAME_AUDIT_LOG_MAX_BACKUP_FILES,
+				ConfigurationParameterParser::parseNonNegativeInteger, DEFAULT_AUDIT_LOG_MAX_BACKUP_FILES);
+		try {
+			return new RollingFileAuditLog(Paths.get(file.trim()), bufferSize, maxFileSize, maxBackupFiles, this::log);
+		} catch (IOException e) {
+			throw new ServletException("Cannot open audit log file " + file, e);
+		}
+	}
+
+	private RejectionRateLimiter createRejectionRateLimiter(UnaryOperator<String> parameters) {
+		int rejectionsPerSecond = parseParameter(parameters, INIT_PARAM_NAME_REJECTION_RATE_LIMIT,
+				ConfigurationParameterParser::parseNonNegativeInteger, 0);
+		if (rejectionsPerSecond == 0) {
+			return RejectionRateLimiter.DISABLED;
+		}
+		int burst = parseParameter(parameters, INIT_PARAM_NAME_REJECTION_RATE_BURST,
+				ConfigurationParameterParser::parsePositiveInteger, rejectionsPerSecond);
+		int blockMillis = parseParameter(parameters, INIT_PARAM_NAME_REJECTION_BLOCK_MILLIS,
+				ConfigurationParameterParser::parsePositiveInteger, DEFAULT_REJECTION_BLOCK_MILLIS);
+		int size = parseParameter(parameters, INIT_PARAM_NAME_REJECTION_RATE_LIMITER_SIZE,
+				ConfigurationParameterParser::parsePositiveInteger, DEFAULT_REJECTION_RATE_LIMITER_SIZE);
+		return new RejectionRateLimiter(size, rejectionsPerSecond, burst, blockMillis);
+	}
+
+	/**
+	 * Reads the configuration file, whose properties take precedence over init parameters of the same name.
+	 */
+	private UnaryOperator<String> loadParameters(Path configurationFile) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream input = Files.newInputStream(configurationFile)) {
+			properties.load(input);
+		}
+		return name -> properties.getProperty(name, filterConfig.getInitParameter(name));
+	}
+
+	private static Map<String, String> readStartupParameters(UnaryOperator<String> parameters) {
+		Map<String, String> values = new HashMap<>();
+		for (String name : STARTUP_PARAMETER_NAMES) {
+			values.put(name, parameters.apply(name));
+		}
+		return values;
+	}
+
+	private void watchConfigurationFile(Path configurationFile, int reloadDelayMillis) throws ServletException {
+		try {
+			configurationFileWatcher = Optional.of(new ConfigurationFileWatcher(configurationFile, reloadDelayMillis,
+					() -> reloadPolicy(configurationFile)));
+		} catch (IOException e) {
+			throw new ServletException("Cannot watch configuration file " + configurationFile, e);
+		}
+	}
+
+	/**
+	 * Runs on the watcher thread. Requests keep using the previous policy until the new one is fully built, and
+	 * keep using it for good if the file cannot be read or is invalid.
+	 */
+	private void reloadPolicy(Path configurationFile) {
+		long startTime = System.nanoTime();
+		UnaryOperator<String> parameters;
+		try {
+			parameters = loadParameters(configurationFile);
+			ScrutinyPolicy reloadedPolicy = ScrutinyPolicy.fromParameters(parameters);
+			rejectionRateLimiter.clear();// before the new policy is seen, so that it never meets a stale block
+			policy = reloadedPolicy;
+			metrics.policyReloaded(System.nanoTime() - startTime);
+		} catch (IOException | IllegalArgumentException e) {
+			metrics.policyReloadFailed();
+			log("Cannot reload configuration file " + configurationFile + ", keeping previous configuration", e);
+			return;
+		}
+		Map<String, String> reloadedStartupParameters = readStartupParameters(parameters);
+		for (String name : STARTUP_PARAMETER_NAMES) {
+			if (!Objects.equals(startupParameters.get(name), reloadedStartupParameters.get(name))) {
+				log("Changing " + name + " in configuration file " + configurationFile
+						+ " takes effect when the filter is restarted", null);
+			}
+		}
+		startupParameters = reloadedStartupParameters;// so that a change is only logged once
+	}
+
+	private void log(String message, Throwable throwable) {
+		ServletContext servletContext = filterConfig.getServletContext();
+		if (servletContext == null) {
+			return;
+		}
+		if (throwable == null) {
+			servletContext.log(message);
+		} else {
+			servletContext.log(message, throwable);
+		}
+	}
+
+	private FilterMetrics createMetrics(UnaryOperator<String> parameters) {
+		boolean enabled = parseParameter(parameters, INIT_PARAM_NAME_METRICS_ENABLED,
+				ConfigurationParameterParser::parseBoolean, false);
+		boolean latencyHistogram = parseParameter(parameters, INIT_PARAM_NAME_METRICS_LATENCY_HISTOGRAM,
+				ConfigurationParameterParser::parseBoolean, false);
+		boolean jmx = parameters.apply(INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME) != null;
+		if (!enabled && !latencyHistogram && !jmx) {
+			return FilterMetrics.DISABLED;
+		}
+		return new CountingFilterMetrics(latencyHistogram ? new LatencyHistogram() : null,
+				() -> policy.getHostVerdictCache(), auditLog);
+	}
+
+	private void registerMetricsMBean(String objectName) throws ServletException {
+		try {
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			metricsObjectName = Optional.of(name);
+		} catch (JMException e) {
+			throw new ServletException("Cannot register metrics MBean " + objectName, e);
+		}
+	}
+
 	@Override
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
 			throws IOException, ServletException {
+		long startTime = latencyRecorded ? System.nanoTime() : 0L;
 		HttpServletRequest httpRequest = (HttpServletRequest)request;
-		if (!isRequestExcluded(httpRequest)) {
-			try {
-				checkRequestHeaders(httpRequest);
-			} catch (ForbiddenException e) {
-				((HttpServletResponse) response).sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage());
+		ScrutinyPolicy currentPolicy = getPolicy();
+		CorsHeaderScrutinyEngine engine = currentPolicy.getEngine();
+		// reads no header unless virtual hosts are configured
+		HostPolicy hostPolicy = engine.getHostPolicy(httpRequest, SERVLET_HEADERS);
+		ExemptMethods exemptMethods = hostPolicy.getExemptMethods();
+		if (!exemptMethods.isEmpty() && exemptMethods.contains(httpRequest.getMethod())) {
+			metrics.requestExempted();
+			recordLatency(startTime);
+			chain.doFilter(request, response);
+			return;
+		}
+		Optional<ReportOnlyMode> reportOnlyMode = currentPolicy.getReportOnlyMode();
+		if (reportOnlyMode.isPresent()) {
+			report(reportOnlyMode.get(), engine, hostPolicy, httpRequest);
+			recordLatency(startTime);
+			chain.doFilter(request, response);
+			return;
+		}
+		if (isRequestExcluded(hostPolicy, httpRequest)) {
+			metrics.requestExcluded();
+		} else {
+			if (rejectionRateLimiter.isEnabled() && isRateLimited(engine, httpRequest)) {
+				metrics.requestRejected(Verdict.RATE_LIMITED);
+				recordLatency(startTime);
+				rejectRateLimited(httpRequest, (HttpServletResponse) response);
+				return;
+			}
+			Verdict verdict = scrutinize(engine, hostPolicy, httpRequest, true);
+			if (!verdict.isAllowed()) {
+				metrics.requestRejected(verdict);
+				auditLog.requestRejected(httpRequest, verdict);
+				recordLatency(startTime);
+				reject(currentPolicy, httpRequest, (HttpServletResponse) response);
+				return;
+			}
+			metrics.requestAllowed();
+			if (answerPreflight(currentPolicy, httpRequest, (HttpServletResponse) response)) {
+				recordLatency(startTime);
 				return;
 			}
 		}
+		recordLatency(startTime);
 		chain.doFilter(request, response);
 	}
 
-	private Boolean isRequestExcluded(HttpServletRequest httpRequest) {
-		return getRequestExclusionMatcher().map(matcher -> matcher.matchesRequest(httpRequest)).orElse(false);
+	/**
+	 * When enforcing, feeds Origin headers whose host mismatches the effective host, and only those, to the rate
+	 * limiter: the pair of Origin and host is then rejected whatever the other headers say. Only a mismatch is sure to
+	 * have been decided from the single Origin and effective host that make up the pair, so any other rejection is not
+	 * fed, as a forged one, such as a repeated legitimate Origin, could block a legitimate pair.
+	 */
+	private Verdict scrutinize(CorsHeaderScrutinyEngine engine, HostPolicy hostPolicy, HttpServletRequest request,
+			boolean enforced) {
+		Verdict verdict = engine.checkFetchMetadata(hostPolicy, request, SERVLET_HEADERS);
+		if (verdict != null) {
+			metrics.decidedByFetchMetadata();
+			return verdict;
+		}
+		metrics.decidedByOriginAndReferer();
+		verdict = engine.checkOrigin(hostPolicy, request, SERVLET_HEADERS);
+		if (verdict.isAllowed()) {
+			return engine.checkReferer(hostPolicy, request, SERVLET_HEADERS);
+		}
+		if (enforced && verdict == Verdict.HOST_MISMATCH && rejectionRateLimiter.isEnabled()) {
+			rejectionRateLimiter.rejected(request.getHeader(CorsHeaderScrutinyEngine.HEADER_ORIGIN),
+					engine.getEffectiveHostHeader(request, SERVLET_HEADERS));
+		}
+		return verdict;
 	}
 
-	private void checkRequestHeaders(HttpServletRequest request) {
-		getSingleHeader(request, HEADER_ORIGIN).ifPresent(headerValue -> validateUriHeader(request, headerValue));
-		getSingleHeader(request, HEADER_REFERER).ifPresent(headerValue -> validateUriHeader(request, headerValue));
+	/**
+	 * Scrutinizes a sample of requests and records the ones that would be rejected, but neither rejects, rate limits
+	 * nor answers any of them.
+	 */
+	private void report(ReportOnlyMode reportOnlyMode, CorsHeaderScrutinyEngine engine, HostPolicy hostPolicy,
+			HttpServletRequest request) {
+		if (!reportOnlyMode.sample()) {
+			metrics.requestNotSampled();
+			return;
+		}
+		if (isRequestExcluded(hostPolicy, request)) {
+			metrics.requestExcluded();
+			return;
+		}
+		Verdict verdict = scrutinize(engine, hostPolicy, request, false);
+		if (verdict.isAllowed()) {
+			metrics.requestAllowed();
+		} else {
+			metrics.requestReported(verdict);
+			auditLog.requestReported(request, verdict);
+		}
 	}
 
-	private void validateUriHeader(HttpServletRequest request, String headerValue) {
-		checkNotEmpty(headerValue);
-		String hostHeader = getEffectiveHostHeader(request);
-		checkNotEmpty(hostHeader);
-		URI uri = URI.create(headerValue);
-		checkHost(hostHeader, uri.getHost());
+	/**
+	 * Rejects the request without reading its body. Containers would otherwise read and discard an unread body to
+	 * keep the connection open for further requests, so closing the connection instead spares them receiving an
+	 * upload that is refused anyway.
+	 */
+	private void reject(ScrutinyPolicy policy, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		if (hasBody(request)) {
+			response.setHeader(HEADER_CONNECTION, CONNECTION_CLOSE);
+		}
+		Optional<RejectionResponse> rejectionResponse = policy.getRejectionResponse();
+		if (rejectionResponse.isPresent()) {
+			rejectionResponse.get().writeTo(response);
+		} else {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, FORBIDDEN_MESSAGE);
+		}
 	}
 
-	private String getEffectiveHostHeader(HttpServletRequest request) {
-		return getSingleHeader(request, HEADER_X_FORWARDED_HOST).orElse(getSingleHeaderChecked(request, HEADER_HOST));
+	/**
+	 * Reads only the first value of the Origin header, since a repeated one is rejected anyway, and the effective host
+	 * as it was read when the pair was blocked.
+	 */
+	private boolean isRateLimited(CorsHeaderScrutinyEngine engine, HttpServletRequest request) {
+		String origin = request.getHeader(CorsHeaderScrutinyEngine.HEADER_ORIGIN);
+		if (origin == null) {
+			return false;
+		}
+		return rejectionRateLimiter.isBlocked(origin, engine.getEffectiveHostHeader(request, SERVLET_HEADERS));
 	}
 
-	private void checkHost(String hostHeader, String host) {
-		String hostHeaderHost = hostHeader.split(":")[0];
-		if (!hostHeaderHost.equals(host)) {
-			throw createForbiddenException();
+	/**
+	 * Sheds a blocked request with an empty response instead of the container's error page, and does not audit it,
+	 * since the rejection that blocked its origin was.
+	 */
+	private void rejectRateLimited(HttpServletRequest request, HttpServletResponse response) {
+		if (hasBody(request)) {
+			response.setHeader(HEADER_CONNECTION, CONNECTION_CLOSE);
 		}
+		response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+		response.setContentLength(0);
 	}
 
-	private String getSingleHeaderChecked(HttpServletRequest request, String headerName) {
-		return getSingleHeader(request, headerName).orElseThrow(() -> createForbiddenException());
+	private boolean hasBody(HttpServletRequest request) {
+		return request.getContentLength() > 0 || request.getHeader(HEADER_TRANSFER_ENCODING) != null;
 	}
 
-	private Optional<String> getSingleHeader(HttpServletRequest request, String headerName) {
-		List<String> list = listHeaders(request, headerName);
-		if (list.size() > 1) {
-			throw createForbiddenException();
+	/**
+	 * @return whether the request was an allowed preflight that has been answered, so must not reach the chain
+	 */
+	private boolean answerPreflight(ScrutinyPolicy policy, HttpServletRequest request, HttpServletResponse response) {
+		Optional<PreflightResponse> preflightResponse = policy.getPreflightResponse();
+		if (!preflightResponse.isPresent() || !PreflightResponse.isPreflight(request)) {
+			return false;
 		}
-		return list.stream().findFirst();
-	}
-
-	private void checkNotEmpty(String headerValue) {
-		if (headerValue.trim().isEmpty()) {
-			throw createForbiddenException();
+		String origin = request.getHeader(CorsHeaderScrutinyEngine.HEADER_ORIGIN);
+		if (origin == null) {
+			return false;
 		}
+		metrics.preflightAnswered();
+		preflightResponse.get().writeTo(response, origin);
+		return true;
 	}
 
-	private ForbiddenException createForbiddenException() {
-		return new ForbiddenException("Forbidden");// don't disclose the reason
+	private void recordLatency(long startTime) {
+		if (latencyRecorded) {
+			metrics.recordLatency(System.nanoTime() - startTime);
+		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private List<String> listHeaders(HttpServletRequest request, String headerName) {
-		return Collections.list((Enumeration<String>) request.getHeaders(headerName));
+	private boolean isRequestExcluded(HostPolicy hostPolicy, HttpServletRequest httpRequest) {
+		Optional<RequestPathMatcher> matcher = hostPolicy.getRequestExclusionMatcher();
+		return matcher.isPresent() && matcher.get().matchesRequest(httpRequest);
 	}
 
 	@Override
 	public void destroy() {
-		// nothing to do
+		configurationFileWatcher.ifPresent(watcher -> {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				// nothing left to watch
+			}
+		});
+		configurationFileWatcher = Optional.empty();
+		auditLog.close();
+		auditLog = AuditLog.DISABLED;
+		metricsObjectName.ifPresent(name -> {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				// already gone
+			}
+		});
+		metricsObjectName = Optional.empty();
+	}
+	
+	ScrutinyPolicy getPolicy() {
+		return policy;
 	}
 	
 	Optional<RequestPathMatcher> getRequestExclusionMatcher() {
-		return requestExclusionMatcher;
+		return getPolicy().getRequestExclusionMatcher();
+	}
+	
+	TrustedOrigins getTrustedOrigins() {
+		return getPolicy().getTrustedOrigins();
+	}
+	
+	HostVerdictCache getHostVerdictCache() {
+		return getPolicy().getHostVerdictCache();
+	}
+	
+	FilterMetrics getMetrics() {
+		return metrics;
+	}
+	
+	RejectionRateLimiter getRejectionRateLimiter() {
+		return rejectionRateLimiter;
+	}
+
+	AuditLog getAuditLog() {
+		return auditLog;
 	}
 }
@@ -0,0 +1,252 @@
+package com.tasktop.servlet.cors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counts requests by outcome and reason for rejection in striped {@link LongAdder}s, which stay contention-free under
+ * concurrent updates, and optionally records a {@link LatencyHistogram}.
+ */
+class CountingFilterMetrics implements FilterMetrics, CorsHeaderScrutinyMetricsMXBean {
+
+	private final LongAdder exempted = new LongAdder();
+	private final LongAdder excluded = new LongAdder();
+	private final LongAdder allowed = new LongAdder();
+	private final LongAdder preflightsAnswered = new LongAdder();
+	private final LongAdder[] rejected = new LongAdder[Verdict.values().length];
+	private final LongAdder[] reported = new LongAdder[Verdict.values().length];
+	private final LongAdder notSampled = new LongAdder();
+	private final LongAdder decidedByFetchMetadata = new LongAdder();
+	private final LongAdder decidedByOriginAndReferer = new LongAdder();
+	private final LatencyHistogram latencyHistogram;
+	private final Supplier<HostVerdictCache> hostVerdictCache;
+	private final AuditLog auditLog;
+	private final LongAdder policyReloads = new LongAdder();
+	private final LongAdder policyReloadFailures = new LongAdder();
+	private volatile long lastPolicyReloadNanos;
+
+	/**
+	 * @param latencyHistogram
+	 *            the histogram to record latencies in, or {@code null} if latencies are not recorded
+	 * @param hostVerdictCache
+	 *            supplies the cache of the current policy, which is replaced when the configuration is reloaded
+	 */
+	CountingFilterMetrics(LatencyHistogram latencyHistogram, Supplier<HostVerdictCache> hostVerdictCache,
+			AuditLog auditLog) {
+		this.latencyHistogram = latencyHistogram;
+		this.hostVerdictCache = hostVerdictCache;
+		this.auditLog = auditLog;
+		for (int i = 0; i < rejected.length; ++i) {
+			rejected[i] = new LongAdder();
+			reported[i] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void requestExempted() {
+		exempted.increment();
+	}
+
+	@Override
+	public void requestExcluded() {
+		excluded.increment();
+	}
+
+	@Override
+	public void requestAllowed() {
+		allowed.increment();
+	}
+
+	@Override
+	public void requestRejected(Verdict reason) {
+		rejected[reason.ordinal()].increment();
+	}
+
+	@Override
+	public void requestReported(Verdict reason) {
+		reported[reason.ordinal()].increment();
+	}
+
+	@Override
+	public void decidedByFetchMetadata() {
+		decidedByFetchMetadata.increment();
+	}
+
+	@Override
+	public void decidedByOriginAndReferer() {
+		decidedByOriginAndReferer.increment();
+	}
+
+	@Override
+	public void requestNotSampled() {
+		notSampled.increment();
+	}
+
+	@Override
+	public void preflightAnswered() {
+		preflightsAnswered.increment();
+	}
+
+	@Override
+	public boolean isLatencyRecorded() {
+		return latencyHistogram != null;
+	}
+
+	@Override
+	public void recordLatency(long nanos) {
+		latencyHistogram.record(nanos);
+	}
+
+	@Override
+	public void policyReloaded(long nanos) {
+		lastPolicyReloadNanos = nanos;
+		policyReloads.increment();
+	}
+
+	@Override
+	public void policyReloadFailed() {
+		policyReloadFailures.increment();
+	}
+
+	@Override
+	public long getExemptRequestCount() {
+		return exempted.sum();
+	}
+
+	@Override
+	public long getExcludedRequestCount() {
+		return excluded.sum();
+	}
+
+	@Override
+	public long getAllowedRequestCount() {
+		return allowed.sum();
+	}
+
+	@Override
+	public long getRejectedRequestCount() {
+		return sum(rejected);
+	}
+
+	@Override
+	public long getReportedRequestCount() {
+		return sum(reported);
+	}
+
+	@Override
+	public long getFetchMetadataDecisionCount() {
+		return decidedByFetchMetadata.sum();
+	}
+
+	@Override
+	public long getOriginAndRefererDecisionCount() {
+		return decidedByOriginAndReferer.sum();
+	}
+
+	@Override
+	public long getNotSampledRequestCount() {
+		return notSampled.sum();
+	}
+
+	@Override
+	public long getAnsweredPreflightCount() {
+		return preflightsAnswered.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRejectedRequestCountByReason() {
+		return countByReason(rejected);
+	}
+
+	@Override
+	public Map<String, Long> getReportedRequestCountByReason() {
+		return countByReason(reported);
+	}
+
+	long getRejectedRequestCount(Verdict reason) {
+		return rejected[reason.ordinal()].sum();
+	}
+
+	long getReportedRequestCount(Verdict reason) {
+		return reported[reason.ordinal()].sum();
+	}
+
+	private static long sum(LongAdder[] adders) {
+		long count = 0;
+		for (LongAdder adder : adders) {
+			count += adder.sum();
+		}
+		return count;
+	}
+
+	private static Map<String, Long> countByReason(LongAdder[] adders) {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (Verdict verdict : Verdict.values()) {
+			if (!verdict.isAllowed()) {
+				counts.put(verdict.name(), adders[verdict.ordinal()].sum());
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public long getHostVerdictCacheHitCount() {
+		return hostVerdictCache.get().getHitCount();
+	}
+
+	@Override
+	public long getHostVerdictCacheMissCount() {
+		return hostVerdictCache.get().getMissCount();
+	}
+
+	@Override
+	public long getAuditLogWrittenCount() {
+		return auditLog.getWrittenCount();
+	}
+
+	@Override
+	public long getAuditLogDroppedCount() {
+		return auditLog.getDroppedCount();
+	}
+
+	@Override
+	public long getPolicyReloadCount() {
+		return policyReloads.sum();
+	}
+
+	@Override
+	public long getPolicyReloadFailureCount() {
+		return policyReloadFailures.sum();
+	}
+
+	@Override
+	public long getLastPolicyReloadNanos() {
+		return lastPolicyReloadNanos;
+	}
+
+	@Override
+	public long getLatencySampleCount() {
+		return latencyHistogram == null ? 0 : latencyHistogram.getCount();
+	}
+
+	@Override
+	public long getLatencyNanos50thPercentile() {
+		return getLatencyAtQuantile(0.5);
+	}
+
+	@Override
+	public long getLatencyNanos99thPercentile() {
+		return getLatencyAtQuantile(0.99);
+	}
+
+	@Override
+	public long getLatencyNanos999thPercentile() {
+		return getLatencyAtQuantile(0.999);
+	}
+
+	private long getLatencyAtQuantile(double quantile) {
+		return latencyHistogram == null ? 0 : latencyHistogram.getValueAtQuantile(quantile);
+	}
+}
@@ -0,0 +1,52 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * HTTP methods whose requests are passed on without any scrutiny, typically the safe methods of read-heavy traffic.
+ * Methods are compared case-sensitively, as HTTP defines them. Containers usually return the method of a request as
+ * one of their own string constants, so the configured methods are interned and compared by identity before falling
+ * back to {@link String#equals(Object)}.
+ */
+class ExemptMethods {
+
+	static final ExemptMethods NONE = new ExemptMethods(Collections.emptyList());
+
+	private final String[] methods;
+
+	ExemptMethods(Collection<String> methods) {
+		Set<String> distinct = new LinkedHashSet<>();
+		for (String method : methods) {
+			if (!PreflightResponse.isToken(method)) {
+				throw new IllegalArgumentException(String.format("Invalid exempt method \"%s\"", method));
+			}
+			distinct.add(method.intern());
+		}
+		this.methods = distinct.toArray(new String[0]);
+	}
+
+	boolean isEmpty() {
+		return methods.length == 0;
+	}
+
+	/**
+	 * @param method
+	 *            the method of a request, or {@code null}
+	 */
+	boolean contains(String method) {
+		for (String exempt : methods) {
+			if (exempt == method) {
+				return true;
+			}
+		}
+		for (String exempt : methods) {
+			if (exempt.equals(method)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
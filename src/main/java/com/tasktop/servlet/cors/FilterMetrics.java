@@ -0,0 +1,136 @@
+package com.tasktop.servlet.cors;
+
+/**
+ * Receives the outcome of every request passing through {@link CorsHeaderScrutinyServletFilter}. Implementations are
+ * called on request threads and must not block.
+ */
+interface FilterMetrics {
+
+	/**
+	 * Records nothing, so that the filter pays nothing for metrics that are turned off.
+	 */
+	FilterMetrics DISABLED = new FilterMetrics() {
+
+		@Override
+		public void requestExempted() {
+			// disabled
+		}
+
+		@Override
+		public void requestExcluded() {
+			// disabled
+		}
+
+		@Override
+		public void requestAllowed() {
+			// disabled
+		}
+
+		@Override
+		public void requestRejected(Verdict reason) {
+			// disabled
+		}
+
+		@Override
+		public void requestReported(Verdict reason) {
+			// disabled
+		}
+
+		@Override
+		public void decidedByFetchMetadata() {
+			// disabled
+		}
+
+		@Override
+		public void decidedByOriginAndReferer() {
+			// disabled
+		}
+
+		@Override
+		public void requestNotSampled() {
+			// disabled
+		}
+
+		@Override
+		public void preflightAnswered() {
+			// disabled
+		}
+
+		@Override
+		public boolean isLatencyRecorded() {
+			return false;
+		}
+
+		@Override
+		public void recordLatency(long nanos) {
+			// disabled
+		}
+
+		@Override
+		public void policyReloaded(long nanos) {
+			// disabled
+		}
+
+		@Override
+		public void policyReloadFailed() {
+			// disabled
+		}
+	};
+
+	/**
+	 * Records a request passed on unscrutinized because of its method.
+	 */
+	void requestExempted();
+
+	void requestExcluded();
+
+	void requestAllowed();
+
+	void requestRejected(Verdict reason);
+
+	/**
+	 * Records a request that was passed on in report-only mode although it would otherwise have been rejected.
+	 */
+	void requestReported(Verdict reason);
+
+	/**
+	 * Records a scrutinized request whose verdict the Sec-Fetch-Site header gave alone.
+	 */
+	void decidedByFetchMetadata();
+
+	/**
+	 * Records a scrutinized request whose verdict took the Origin and Referer headers.
+	 */
+	void decidedByOriginAndReferer();
+
+	/**
+	 * Records a request passed on unscrutinized in report-only mode because it was not sampled.
+	 */
+	void requestNotSampled();
+
+	/**
+	 * Records an allowed request that was a preflight answered by the filter itself, in addition to
+	 * {@link #requestAllowed()}.
+	 */
+	void preflightAnswered();
+
+	/**
+	 * @return whether {@link #recordLatency(long)} should be called, so that the clock is not read for nothing
+	 */
+	boolean isLatencyRecorded();
+
+	/**
+	 * Records the time spent scrutinizing a request, not including the rest of the filter chain.
+	 */
+	void recordLatency(long nanos);
+
+	/**
+	 * Records a successful reload of the configuration file and the time it took to build the new policy.
+	 */
+	void policyReloaded(long nanos);
+
+	/**
+	 * Records a reload of the configuration file that failed and left the previous policy in place.
+	 */
+	void policyReloadFailed();
+}
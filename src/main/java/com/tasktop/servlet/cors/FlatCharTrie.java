@@ -0,0 +1,62 @@
+package com.tasktop.servlet.cors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable character trie flattened into arrays once it has been built from {@link CharTrieNode}s. Nodes are
+ * numbered breadth-first, so the children of each node are consecutive and sorted by character: finding a child is a
+ * binary search in a single {@code char[]}, and walking the trie dereferences no objects.
+ */
+class FlatCharTrie {
+
+	static final int ROOT = 0;
+	static final int NO_NODE = -1;
+
+	/** The character on the edge into each node; unused for the root. */
+	private final char[] labels;
+	/** The children of node {@code n} are the nodes from {@code firstChild[n]} to {@code firstChild[n + 1]}. */
+	private final int[] firstChild;
+	private final boolean[] terminal;
+
+	FlatCharTrie(CharTrieNode root) {
+		List<CharTrieNode> nodes = new ArrayList<>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); ++i) {
+			CharTrieNode node = nodes.get(i);
+			for (int j = 0; j < node.childCount(); ++j) {
+				nodes.add(node.childAt(j));
+			}
+		}
+		labels = new char[nodes.size()];
+		firstChild = new int[nodes.size() + 1];
+		terminal = new boolean[nodes.size()];
+		int next = 1;
+		for (int i = 0; i < nodes.size(); ++i) {
+			CharTrieNode node = nodes.get(i);
+			firstChild[i] = next;
+			for (int j = 0; j < node.childCount(); ++j) {
+				labels[next++] = node.labelAt(j);
+			}
+			terminal[i] = node.isTerminal();
+		}
+		firstChild[nodes.size()] = next;
+	}
+
+	/**
+	 * @return the child of {@code node} on the edge labelled {@code c}, or {@link #NO_NODE}
+	 */
+	int child(int node, char c) {
+		int index = Arrays.binarySearch(labels, firstChild[node], firstChild[node + 1], c);
+		return index < 0 ? NO_NODE : index;
+	}
+
+	boolean isTerminal(int node) {
+		return terminal[node];
+	}
+
+	int size() {
+		return labels.length;
+	}
+}
@@ -0,0 +1,148 @@
+package com.tasktop.servlet.cors;
+
+/**
+ * Reads the host that a client asked for from an RFC 7239 Forwarded header, such as
+ * {@code for=192.0.2.60;host=example.com, for=10.0.0.1}, believing only what trusted proxies added. Each proxy appends
+ * an element describing the request it received, so the last element comes from the peer, which must be trusted, and
+ * an element is believed as long as the proxy it names in {@code for} is trusted as well. The host is taken from the
+ * earliest believed element that gives one, which is the Host header as received by the outermost trusted proxy.
+ * <p>
+ * The header is tokenized in a single pass from left to right, keeping only the span of the host in the believed
+ * elements seen so far, so that nothing is allocated but the host itself.
+ */
+final class ForwardedHeader {
+
+	private static final String PARAMETER_FOR = "for";
+	private static final String PARAMETER_HOST = "host";
+
+	private static final long L_TCHAR = UriHostScanner.lowMask('0', '9') | UriHostScanner.lowMask("!#$%&'*+-.^_`|~");
+	private static final long H_TCHAR = UriHostScanner.highMask('A', 'Z') | UriHostScanner.highMask('a', 'z')
+			| UriHostScanner.highMask("!#$%&'*+-.^_`|~");
+
+	private ForwardedHeader() {
+	}
+
+	/**
+	 * @param header
+	 *            the value of the Forwarded header of a request from a trusted peer
+	 * @return the host, or {@code null} if no believed element gives one or the header is malformed
+	 */
+	static String findHost(String header, TrustedProxies trustedProxies) {
+		int n = header.length();
+		int hostStart = -1;
+		int hostEnd = -1;
+		int elementHostStart = -1;
+		int elementHostEnd = -1;
+		boolean elementForTrusted = false;
+		boolean elementHasFor = false;
+		boolean elementEmpty = true;
+		int i = skipWhitespace(header, 0, n);
+		while (true) {
+			if (i == n || header.charAt(i) == ',') {
+				if (!elementEmpty) {
+					if (!elementForTrusted || hostStart < 0) {
+						// the element starts a chain of trusted proxies, or is the first in it to give a host
+						hostStart = elementHostStart;
+						hostEnd = elementHostEnd;
+					}
+				}
+				if (i == n) {
+					break;
+				}
+				elementHostStart = -1;
+				elementHostEnd = -1;
+				elementForTrusted = false;
+				elementHasFor = false;
+				elementEmpty = true;
+				i = skipWhitespace(header, i + 1, n);
+				continue;
+			}
+			if (!elementEmpty) {
+				if (header.charAt(i) != ';') {
+					return null;
+				}
+				i = skipWhitespace(header, i + 1, n);
+			}
+			int nameStart = i;
+			while (i < n && isTokenChar(header.charAt(i))) {
+				++i;
+			}
+			int nameEnd = i;
+			if (nameEnd == nameStart || i == n || header.charAt(i) != '=') {
+				return null;
+			}
+			int valueStart = ++i;
+			int valueEnd;
+			if (i < n && header.charAt(i) == '"') {
+				valueStart = ++i;
+				while (i < n && header.charAt(i) != '"') {
+					if (header.charAt(i) == '\\') {
+						return null;// no address or host name needs escaping
+					}
+					++i;
+				}
+				if (i == n) {
+					return null;
+				}
+				valueEnd = i++;
+			} else {
+				while (i < n && isTokenChar(header.charAt(i))) {
+					++i;
+				}
+				valueEnd = i;
+				if (valueEnd == valueStart) {
+					return null;
+				}
+			}
+			if (isName(header, nameStart, nameEnd, PARAMETER_FOR)) {
+				if (elementHasFor) {
+					return null;
+				}
+				elementHasFor = true;
+				elementForTrusted = isTrustedNode(header, valueStart, valueEnd, trustedProxies);
+			} else if (isName(header, nameStart, nameEnd, PARAMETER_HOST)) {
+				if (elementHostStart >= 0) {
+					return null;
+				}
+				elementHostStart = valueStart;
+				elementHostEnd = valueEnd;
+			}
+			elementEmpty = false;
+			i = skipWhitespace(header, i, n);
+		}
+		return hostStart < 0 ? null : header.substring(hostStart, hostEnd);
+	}
+
+	/**
+	 * Strips the brackets around an IPv6 address and the port from a node, so that {@code "[2001:db8::1]:4711"} and
+	 * {@code 192.0.2.43:4711} are looked up by address. Obfuscated and {@code unknown} nodes are not addresses, so
+	 * are not trusted.
+	 */
+	private static boolean isTrustedNode(String header, int start, int end, TrustedProxies trustedProxies) {
+		if (start < end && header.charAt(start) == '[') {
+			int close = header.indexOf(']', start);
+			return close >= 0 && close < end && (close + 1 == end || header.charAt(close + 1) == ':')
+					&& trustedProxies.contains(header, start + 1, close);
+		}
+		int addressEnd = start;
+		while (addressEnd < end && header.charAt(addressEnd) != ':') {
+			++addressEnd;
+		}
+		return trustedProxies.contains(header, start, addressEnd);
+	}
+
+	private static boolean isName(String header, int start, int end, String name) {
+		return end - start == name.length() && UriHostScanner.regionMatchesIgnoreCase(header, start, name, 0, name.length());
+	}
+
+	private static int skipWhitespace(String header, int i, int n) {
+		while (i < n && (header.charAt(i) == ' ' || header.charAt(i) == '\t')) {
+			++i;
+		}
+		return i;
+	}
+
+	private static boolean isTokenChar(char c) {
+		return UriHostScanner.match(c, L_TCHAR, H_TCHAR);
+	}
+}
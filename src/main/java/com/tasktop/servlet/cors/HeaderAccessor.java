@@ -0,0 +1,92 @@
+package com.tasktop.servlet.cors;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads request headers for a {@link CorsHeaderScrutinyEngine}, so that the engine does not depend on how a
+ * container or framework represents a request. Implementations are stateless and shared, and are passed the
+ * request on every call, so that scrutinizing a request allocates nothing for the accessor.
+ *
+ * @param <R>
+ *            the type of request
+ */
+public interface HeaderAccessor<R> {
+
+	/**
+	 * Reads headers from a function that returns all values of a header by case-insensitive name, or an empty list or
+	 * {@code null} for an absent header, such as {@code nettyRequest.headers()::getAll}.
+	 */
+	HeaderAccessor<Function<String, ? extends List<String>>> VALUE_LISTS = new SingleHeaderAccessor<
+			Function<String, ? extends List<String>>>() {
+
+		@Override
+		public String getSingleHeader(Function<String, ? extends List<String>> headers, String name) {
+			List<String> values = headers.apply(name);
+			if (values == null || values.isEmpty()) {
+				return null;
+			}
+			return values.size() > 1 ? REPEATED : values.get(0);
+		}
+
+		@Override
+		public String getFirstHeader(Function<String, ? extends List<String>> headers, String name) {
+			List<String> values = headers.apply(name);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+
+		@Override
+		public boolean isHeaderRepeated(Function<String, ? extends List<String>> headers, String name) {
+			List<String> values = headers.apply(name);
+			return values != null && values.size() > 1;
+		}
+	};
+
+	/**
+	 * @return the first value of the header, or {@code null} if it is absent
+	 */
+	String getFirstHeader(R request, String name);
+
+	/**
+	 * Only consulted for a header that is present. A header given more than once is a reason for rejecting the
+	 * request, so values must not be joined into one.
+	 *
+	 * @return whether the header is given more than once
+	 */
+	boolean isHeaderRepeated(R request, String name);
+
+	/**
+	 * Only consulted when trusted proxies are configured, to decide whether to believe the Forwarded and
+	 * X-Forwarded-Host headers.
+	 *
+	 * @return the literal IP address of the peer that sent the request, or {@code null} if unknown, in which case the
+	 *         peer is not trusted
+	 */
+	default String getRemoteAddress(R request) {
+		return null;
+	}
+
+	/**
+	 * @return an accessor that reads headers like this one, and the address of the peer with {@code remoteAddress}
+	 */
+	default HeaderAccessor<R> withRemoteAddress(Function<? super R, String> remoteAddress) {
+		HeaderAccessor<R> headers = this;
+		return new HeaderAccessor<R>() {
+
+			@Override
+			public String getFirstHeader(R request, String name) {
+				return headers.getFirstHeader(request, name);
+			}
+
+			@Override
+			public boolean isHeaderRepeated(R request, String name) {
+				return headers.isHeaderRepeated(request, name);
+			}
+
+			@Override
+			public String getRemoteAddress(R request) {
+				return remoteAddress.apply(request);
+			}
+		};
+	}
+}
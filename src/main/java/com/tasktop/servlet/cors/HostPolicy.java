@@ -0,0 +1,42 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Optional;
+
+/**
+ * The exempt methods, path exclusions and trusted origins that apply to requests for one or more hosts. Instances are
+ * shared between all hosts configured alike.
+ */
+class HostPolicy {
+
+	static final HostPolicy DEFAULT = new HostPolicy(Optional.empty(), TrustedOrigins.NONE);
+
+	private final Optional<RequestPathMatcher> requestExclusionMatcher;
+	private final TrustedOrigins trustedOrigins;
+	private final ExemptMethods exemptMethods;
+
+	HostPolicy(Optional<RequestPathMatcher> requestExclusionMatcher, TrustedOrigins trustedOrigins) {
+		this(requestExclusionMatcher, trustedOrigins, ExemptMethods.NONE);
+	}
+
+	HostPolicy(Optional<RequestPathMatcher> requestExclusionMatcher, TrustedOrigins trustedOrigins,
+			ExemptMethods exemptMethods) {
+		this.requestExclusionMatcher = requestExclusionMatcher;
+		this.trustedOrigins = trustedOrigins;
+		this.exemptMethods = exemptMethods;
+	}
+
+	Optional<RequestPathMatcher> getRequestExclusionMatcher() {
+		return requestExclusionMatcher;
+	}
+
+	TrustedOrigins getTrustedOrigins() {
+		return trustedOrigins;
+	}
+
+	/**
+	 * @return the methods of requests that are passed on before anything else is looked at
+	 */
+	ExemptMethods getExemptMethods() {
+		return exemptMethods;
+	}
+}
@@ -0,0 +1,123 @@
+package com.tasktop.servlet.cors;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of verdicts for pairs of Origin/Referer header value and effective Host header value.
+ * <p>
+ * Entries are held in a set-associative table: each key hashes to a set of a few slots, so a lookup is a handful of
+ * volatile reads and takes no lock. When a set is full, a CLOCK hand sweeps over its slots and replaces the first entry
+ * that has not been read since the hand last passed it. Concurrent writers may race to replace a slot, in which case
+ * one of the verdicts is lost, which only costs a future miss.
+ */
+class HostVerdictCache {
+	private static final int WAYS = 4;
+	private static final int MAXIMUM_CACHED_HEADER_LENGTH = 512;
+
+	private final AtomicReferenceArray<Entry> entries;
+	private final int[] clockHands;
+	private final int ways;
+	private final int setMask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maximumSize
+	 *            the maximum number of verdicts to retain, or zero to disable caching
+	 */
+	HostVerdictCache(int maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+		}
+		this.ways = Math.min(WAYS, maximumSize);
+		int sets = ways == 0 ? 0 : Integer.highestOneBit(maximumSize / ways);
+		this.setMask = sets - 1;
+		this.entries = new AtomicReferenceArray<>(sets * ways);
+		this.clockHands = new int[sets];
+	}
+
+	boolean isEnabled() {
+		return ways > 0;
+	}
+
+	int capacity() {
+		return entries.length();
+	}
+
+	/**
+	 * @return the cached verdict, or {@code null} if there is none
+	 */
+	Boolean get(String headerValue, String hostHeader) {
+		if (!isEnabled()) {
+			return null;
+		}
+		int hash = hash(headerValue, hostHeader);
+		int base = (hash & setMask) * ways;
+		for (int i = 0; i < ways; ++i) {
+			Entry entry = entries.get(base + i);
+			if (entry != null && entry.matches(hash, headerValue, hostHeader)) {
+				if (!entry.referenced) {
+					entry.referenced = true;
+				}
+				hits.increment();
+				return entry.allowed;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	void put(String headerValue, String hostHeader, boolean allowed) {
+		if (!isEnabled() || headerValue.length() > MAXIMUM_CACHED_HEADER_LENGTH
+				|| hostHeader.length() > MAXIMUM_CACHED_HEADER_LENGTH) {
+			return;
+		}
+		int hash = hash(headerValue, hostHeader);
+		int set = hash & setMask;
+		int base = set * ways;
+		Entry replacement = new Entry(hash, headerValue, hostHeader, allowed);
+		int hand = clockHands[set];
+		for (int sweep = 0; sweep < 2 * ways; ++sweep, hand = (hand + 1) % ways) {
+			Entry entry = entries.get(base + hand);
+			if (entry == null || !entry.referenced) {
+				break;
+			}
+			entry.referenced = false;
+		}
+		entries.set(base + hand, replacement);
+		clockHands[set] = (hand + 1) % ways;
+	}
+
+	long getHitCount() {
+		return hits.sum();
+	}
+
+	long getMissCount() {
+		return misses.sum();
+	}
+
+	private static int hash(String headerValue, String hostHeader) {
+		int hash = headerValue.hashCode() * 31 + hostHeader.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private static class Entry {
+		private final int hash;
+		private final String headerValue;
+		private final String hostHeader;
+		private final Boolean allowed;
+		private volatile boolean referenced;
+
+		Entry(int hash, String headerValue, String hostHeader, boolean allowed) {
+			this.hash = hash;
+			this.headerValue = headerValue;
+			this.hostHeader = hostHeader;
+			this.allowed = allowed;
+		}
+
+		boolean matches(int hash, String headerValue, String hostHeader) {
+			return this.hash == hash && this.headerValue.equals(headerValue) && this.hostHeader.equals(hostHeader);
+		}
+	}
+}
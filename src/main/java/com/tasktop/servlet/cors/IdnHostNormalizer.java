@@ -0,0 +1,91 @@
+package com.tasktop.servlet.cors;
+
+import java.net.IDN;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Brings host names to the ASCII form that browsers send in Origin and Referer headers, so that a Host or
+ * X-Forwarded-Host header or a configured host given in Unicode compares equal to its punycode form.
+ * <p>
+ * Configured hosts are converted once when the policy is built. Host headers are almost always ASCII already and are
+ * then returned as they are; the rare Unicode ones are converted through a small direct-mapped cache keyed by the raw
+ * header value, so that a client repeating the same header does not pay for {@link IDN#toASCII(String)} every time.
+ * ASCII case is not folded here, since every comparison of hosts ignores it in place.
+ */
+class IdnHostNormalizer {
+
+	private static final int MAXIMUM_HOST_HEADER_LENGTH = 255;
+
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+
+	/**
+	 * @param capacity
+	 *            the number of header values to cache, rounded up to a power of two
+	 */
+	IdnHostNormalizer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1);
+		this.entries = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Converts a configured host name to lower case ASCII.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the host is not a valid internationalized domain name
+	 */
+	static String toAscii(String host) {
+		return (isAscii(host) ? host : IDN.toASCII(host, IDN.ALLOW_UNASSIGNED)).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @param hostHeader
+	 *            the value of a Host or X-Forwarded-Host header, possibly with a port, or {@code null}
+	 * @return the value with its host in ASCII, or the value itself if it is ASCII already or cannot be converted
+	 */
+	String normalize(String hostHeader) {
+		if (hostHeader == null || isAscii(hostHeader) || hostHeader.length() > MAXIMUM_HOST_HEADER_LENGTH) {
+			return hostHeader;
+		}
+		int hash = hostHeader.hashCode();
+		int index = (hash ^ (hash >>> 16)) & mask;
+		Entry entry = entries.get(index);
+		if (entry != null && entry.hostHeader.equals(hostHeader)) {
+			return entry.normalized;
+		}
+		String normalized = convert(hostHeader);
+		entries.set(index, new Entry(hostHeader, normalized));
+		return normalized;
+	}
+
+	private static String convert(String hostHeader) {
+		int hostLength = UriHostScanner.hostHeaderHostLength(hostHeader);
+		try {
+			return IDN.toASCII(hostHeader.substring(0, hostLength), IDN.ALLOW_UNASSIGNED)
+					+ hostHeader.substring(hostLength);
+		} catch (IllegalArgumentException e) {
+			return hostHeader;// matches no ASCII host, as before
+		}
+	}
+
+	private static boolean isAscii(String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			if (value.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class Entry {
+		private final String hostHeader;
+		private final String normalized;
+
+		Entry(String hostHeader, String normalized) {
+			this.hostHeader = hostHeader;
+			this.normalized = normalized;
+		}
+	}
+}
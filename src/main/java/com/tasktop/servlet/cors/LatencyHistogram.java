@@ -0,0 +1,80 @@
+package com.tasktop.servlet.cors;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of durations in nanoseconds with log-linear buckets, in the manner of HdrHistogram: each
+ * power of two is split into {@value #SUB_BUCKET_COUNT} buckets, so a recorded value is reported to within 12.5%
+ * while the whole range of {@code long} needs fewer than 500 buckets. Buckets are {@link LongAdder}s, so recording
+ * from many threads does not contend.
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+	LatencyHistogram() {
+		for (int i = 0; i < buckets.length; ++i) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	void record(long nanos) {
+		buckets[bucketIndex(Math.max(0, nanos))].increment();
+	}
+
+	long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @param quantile
+	 *            between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return the upper bound of the bucket holding the value at the given quantile, or 0 if nothing was recorded
+	 */
+	long getValueAtQuantile(double quantile) {
+		long[] counts = new long[buckets.length];
+		long total = 0;
+		for (int i = 0; i < buckets.length; ++i) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return bucketUpperBound(i);
+			}
+		}
+		return bucketUpperBound(counts.length - 1);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+		return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT;
+		long upperExclusive = (SUB_BUCKET_COUNT + subBucket + 1) << shift;
+		return upperExclusive <= 0 ? Long.MAX_VALUE : upperExclusive - 1;
+	}
+}
@@ -0,0 +1,281 @@
+package com.tasktop.servlet.cors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * A deterministic automaton built once from a set of path patterns, in which {@code *} matches any characters within
+ * one path segment and a {@code **} segment matches any number of segments, including none. Answers whether any of
+ * the patterns matches a whole path in one pass over the path, independent of the number of patterns, without
+ * backtracking or allocating.
+ * <p>
+ * The patterns are first translated to a nondeterministic automaton, which the subset construction then turns into a
+ * table with one row per state and one column per class of characters: each character that occurs literally in a
+ * pattern is a class of its own, and all other characters share one.
+ */
+class PathPatternAutomaton {
+
+	static final String ANY_DEPTH = "**";
+
+	/**
+	 * Bounds the table however the patterns combine; ordinary lists of patterns stay far below it.
+	 */
+	static final int MAX_STATES = 1 << 16;
+
+	private static final int NO_STATE = -1;
+	private static final int ASCII = 128;
+
+	/** The characters that have a class of their own, in ascending order; class {@code i} is {@code classChars[i]}. */
+	private final char[] classChars;
+	private final int[] asciiClasses;
+	private final int classCount;
+	private final int start;
+	/** The state after state {@code s} reads a character of class {@code c} is {@code transitions[s * classCount + c]}. */
+	private final int[] transitions;
+	private final boolean[] accepting;
+	/** Whether a state accepts every path that reaches it, whatever follows, so that matching can stop early. */
+	private final boolean[] acceptingAll;
+
+	PathPatternAutomaton(Collection<String> patterns) {
+		this(patterns, UnaryOperator.identity());
+	}
+
+	/**
+	 * @param decoder
+	 *            decodes the literal text between the slashes and wildcards of a pattern, so that an escaped slash or
+	 *            asterisk in a pattern only ever matches that character
+	 */
+	PathPatternAutomaton(Collection<String> patterns, UnaryOperator<String> decoder) {
+		List<Node> nodes = new ArrayList<>();
+		Node root = new Node(nodes);
+		TreeSet<Character> literals = new TreeSet<>();
+		for (String pattern : patterns) {
+			root.epsilons.add(addPattern(nodes, pattern, decoder, literals));
+		}
+
+		classChars = new char[literals.size()];
+		int i = 0;
+		for (char c : literals) {
+			classChars[i++] = c;
+		}
+		classCount = classChars.length + 1;
+		asciiClasses = new int[ASCII];
+		for (char c = 0; c < ASCII; ++c) {
+			int index = Arrays.binarySearch(classChars, c);
+			asciiClasses[c] = index < 0 ? classChars.length : index;
+		}
+
+		List<BitSet> states = new ArrayList<>();
+		Map<BitSet, Integer> stateNumbers = new HashMap<>();
+		start = stateNumber(closure(nodes, root.single()), states, stateNumbers);
+		List<int[]> rows = new ArrayList<>();
+		for (int state = 0; state < states.size(); ++state) {
+			int[] row = new int[classCount];
+			for (int c = 0; c < classCount; ++c) {
+				row[c] = stateNumber(step(nodes, states.get(state), representative(c)), states, stateNumbers);
+			}
+			rows.add(row);
+		}
+
+		transitions = new int[states.size() * classCount];
+		accepting = new boolean[states.size()];
+		acceptingAll = new boolean[states.size()];
+		for (int state = 0; state < states.size(); ++state) {
+			System.arraycopy(rows.get(state), 0, transitions, state * classCount, classCount);
+			BitSet members = states.get(state);
+			for (int node = members.nextSetBit(0); node >= 0; node = members.nextSetBit(node + 1)) {
+				accepting[state] |= nodes.get(node).accepting;
+			}
+			acceptingAll[state] = accepting[state] && loopsOnEveryClass(rows.get(state), state);
+		}
+	}
+
+	boolean matches(String path) {
+		return matches(path, 0);
+	}
+
+	/**
+	 * Tests the portion of {@code path} starting at {@code fromIndex}, avoiding the need for a substring.
+	 */
+	boolean matches(String path, int fromIndex) {
+		int state = start;
+		for (int i = fromIndex; i < path.length(); ++i) {
+			if (state == NO_STATE) {
+				return false;
+			}
+			if (acceptingAll[state]) {
+				return true;
+			}
+			state = transitions[state * classCount + classOf(path.charAt(i))];
+		}
+		return state != NO_STATE && accepting[state];
+	}
+
+	int stateCount() {
+		return accepting.length;
+	}
+
+	private int classOf(char c) {
+		if (c < ASCII) {
+			return asciiClasses[c];
+		}
+		int index = Arrays.binarySearch(classChars, c);
+		return index < 0 ? classChars.length : index;
+	}
+
+	/**
+	 * @return a character of class {@code c}
+	 */
+	private char representative(int c) {
+		if (c < classChars.length) {
+			return classChars[c];
+		}
+		// the characters in classChars are fewer than the values of char
+		char other = 0;
+		while (Arrays.binarySearch(classChars, other) >= 0) {
+			++other;
+		}
+		return other;
+	}
+
+	/**
+	 * Translates a pattern, which starts with a slash, into a chain of nodes from the returned one to an accepting
+	 * node. A {@code **} segment becomes an optional slash followed by any characters, so that {@code /a/**}{@code /b}
+	 * matches {@code /a/b} as well as {@code /a/x/y/b}.
+	 */
+	private static Node addPattern(List<Node> nodes, String pattern, UnaryOperator<String> decoder,
+			TreeSet<Character> literals) {
+		Node first = new Node(nodes);
+		Node current = first;
+		String[] segments = pattern.split("/", -1);
+		for (int i = 1; i < segments.length; ++i) {
+			String segment = segments[i];
+			if (segment.equals(ANY_DEPTH)) {
+				Node after = new Node(nodes);
+				Node inside = new Node(nodes);
+				inside.loopsOnAny = true;
+				inside.epsilons.add(after);
+				Node entry = new Node(nodes);
+				entry.literal('/', inside);
+				current.epsilons.add(entry);
+				current.epsilons.add(after);
+				current = after;
+				literals.add('/');
+				continue;
+			}
+			current = current.literal('/', new Node(nodes));
+			literals.add('/');
+			int literalStart = 0;
+			for (int j = 0; j <= segment.length(); ++j) {
+				if (j == segment.length() || segment.charAt(j) == '*') {
+					String literal = decoder.apply(segment.substring(literalStart, j));
+					for (int k = 0; k < literal.length(); ++k) {
+						char c = literal.charAt(k);
+						current = current.literal(c, new Node(nodes));
+						literals.add(c);
+					}
+					if (j < segment.length()) {
+						current.loopsWithinSegment = true;
+					}
+					literalStart = j + 1;
+				}
+			}
+		}
+		current.accepting = true;
+		return first;
+	}
+
+	private static boolean loopsOnEveryClass(int[] row, int state) {
+		for (int target : row) {
+			if (target != state) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static BitSet step(List<Node> nodes, BitSet from, char c) {
+		BitSet to = new BitSet(nodes.size());
+		for (int i = from.nextSetBit(0); i >= 0; i = from.nextSetBit(i + 1)) {
+			Node node = nodes.get(i);
+			if (node.next != null && node.label == c) {
+				to.set(node.next.number);
+			}
+			if (node.loopsOnAny || (node.loopsWithinSegment && c != '/')) {
+				to.set(i);
+			}
+		}
+		return closure(nodes, to);
+	}
+
+	private static BitSet closure(List<Node> nodes, BitSet set) {
+		List<Node> pending = new ArrayList<>();
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			pending.add(nodes.get(i));
+		}
+		while (!pending.isEmpty()) {
+			for (Node target : pending.remove(pending.size() - 1).epsilons) {
+				if (!set.get(target.number)) {
+					set.set(target.number);
+					pending.add(target);
+				}
+			}
+		}
+		return set;
+	}
+
+	private static int stateNumber(BitSet nodes, List<BitSet> states, Map<BitSet, Integer> stateNumbers) {
+		if (nodes.isEmpty()) {
+			return NO_STATE;
+		}
+		Integer number = stateNumbers.get(nodes);
+		if (number == null) {
+			if (states.size() == MAX_STATES) {
+				throw new IllegalArgumentException(
+						String.format("Path patterns need more than %s states to match", MAX_STATES));
+			}
+			number = states.size();
+			states.add(nodes);
+			stateNumbers.put(nodes, number);
+		}
+		return number;
+	}
+
+	/**
+	 * A node of the nondeterministic automaton. Each node has at most one transition on a literal character, since
+	 * the translation moves on to a new node after each one.
+	 */
+	private static class Node {
+		private final int number;
+		private final List<Node> epsilons = new ArrayList<>(2);
+		private char label;
+		private Node next;
+		private boolean loopsWithinSegment;
+		private boolean loopsOnAny;
+		private boolean accepting;
+
+		Node(List<Node> nodes) {
+			number = nodes.size();
+			nodes.add(this);
+		}
+
+		Node literal(char c, Node target) {
+			label = c;
+			next = target;
+			return target;
+		}
+
+		BitSet single() {
+			BitSet set = new BitSet();
+			set.set(number);
+			return set;
+		}
+	}
+}
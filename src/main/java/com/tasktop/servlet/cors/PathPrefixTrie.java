@@ -0,0 +1,50 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collection;
+
+/**
+ * A character-level trie built once from a set of path prefixes. Answers whether any of the prefixes is a prefix of a
+ * given path in time proportional to the length of the path, independent of the number of prefixes.
+ */
+class PathPrefixTrie {
+
+	private final FlatCharTrie trie;
+
+	PathPrefixTrie(Collection<String> prefixes) {
+		CharTrieNode root = new CharTrieNode();
+		prefixes.forEach(prefix -> add(root, prefix));
+		trie = new FlatCharTrie(root);
+	}
+
+	boolean matchesPrefixOf(String path) {
+		return matchesPrefixOf(path, 0);
+	}
+
+	/**
+	 * Tests the portion of {@code path} starting at {@code fromIndex}, avoiding the need for a substring.
+	 */
+	boolean matchesPrefixOf(String path, int fromIndex) {
+		int node = FlatCharTrie.ROOT;
+		for (int i = fromIndex; i < path.length(); ++i) {
+			if (trie.isTerminal(node)) {
+				return true;
+			}
+			node = trie.child(node, path.charAt(i));
+			if (node == FlatCharTrie.NO_NODE) {
+				return false;
+			}
+		}
+		return trie.isTerminal(node);
+	}
+
+	private static void add(CharTrieNode root, String prefix) {
+		CharTrieNode node = root;
+		for (int i = 0; i < prefix.length(); ++i) {
+			if (node.isTerminal()) {
+				return;// a shorter prefix already matches everything below this node
+			}
+			node = node.getOrAddChild(prefix.charAt(i));
+		}
+		node.markTerminal();
+	}
+}
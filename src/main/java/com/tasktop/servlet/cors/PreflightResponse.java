@@ -0,0 +1,114 @@
+package com.tasktop.servlet.cors;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The answer to an allowed CORS preflight request. Every header value but the echoed origin is the same for all
+ * preflights, so they are joined once when the policy is built and set as they are on each response.
+ */
+class PreflightResponse {
+
+	static final String HEADER_ACCESS_CONTROL_REQUEST_METHOD = "Access-Control-Request-Method";
+	static final String HEADER_ACCESS_CONTROL_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
+	static final String HEADER_ACCESS_CONTROL_ALLOW_METHODS = "Access-Control-Allow-Methods";
+	static final String HEADER_ACCESS_CONTROL_ALLOW_HEADERS = "Access-Control-Allow-Headers";
+	static final String HEADER_ACCESS_CONTROL_ALLOW_CREDENTIALS = "Access-Control-Allow-Credentials";
+	static final String HEADER_ACCESS_CONTROL_MAX_AGE = "Access-Control-Max-Age";
+	static final String HEADER_VARY = "Vary";
+
+	private static final String METHOD_OPTIONS = "OPTIONS";
+	private static final String TOKEN_SEPARATORS = "()<>@,;:\\\"/[]?={}";
+
+	private final String allowMethods;
+	private final Optional<String> allowHeaders;
+	private final boolean allowCredentials;
+	private final String maxAge;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a method or header name is not a valid HTTP token
+	 */
+	PreflightResponse(List<String> allowedMethods, List<String> allowedHeaders, boolean allowCredentials,
+			int maxAgeSeconds) {
+		if (allowedMethods.isEmpty()) {
+			throw new IllegalArgumentException("At least one method must be allowed for preflight requests");
+		}
+		this.allowMethods = join(allowedMethods, "method");
+		this.allowHeaders = allowedHeaders.isEmpty() ? Optional.empty() : Optional.of(join(allowedHeaders, "header"));
+		this.allowCredentials = allowCredentials;
+		this.maxAge = Integer.toString(maxAgeSeconds);
+	}
+
+	/**
+	 * @return whether the request is a CORS preflight, that is an {@code OPTIONS} request naming the method of the
+	 *         request it precedes
+	 */
+	static boolean isPreflight(HttpServletRequest request) {
+		return METHOD_OPTIONS.equals(request.getMethod())
+				&& request.getHeader(HEADER_ACCESS_CONTROL_REQUEST_METHOD) != null;
+	}
+
+	/**
+	 * Answers the preflight with the full lists of allowed methods and headers, leaving it to the browser to check the
+	 * requested ones against them. The response therefore depends on nothing but the origin.
+	 */
+	void writeTo(HttpServletResponse response, String origin) {
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+		response.setHeader(HEADER_ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+		response.setHeader(HEADER_ACCESS_CONTROL_ALLOW_METHODS, allowMethods);
+		if (allowHeaders.isPresent()) {
+			response.setHeader(HEADER_ACCESS_CONTROL_ALLOW_HEADERS, allowHeaders.get());
+		}
+		if (allowCredentials) {
+			response.setHeader(HEADER_ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+		}
+		response.setHeader(HEADER_ACCESS_CONTROL_MAX_AGE, maxAge);
+		response.addHeader(HEADER_VARY, CorsHeaderScrutinyEngine.HEADER_ORIGIN);
+	}
+
+	String getAllowMethods() {
+		return allowMethods;
+	}
+
+	Optional<String> getAllowHeaders() {
+		return allowHeaders;
+	}
+
+	String getMaxAge() {
+		return maxAge;
+	}
+
+	private static String join(List<String> tokens, String kind) {
+		Set<String> distinct = new LinkedHashSet<>();
+		for (String token : tokens) {
+			checkToken(token, kind);
+			distinct.add(token);
+		}
+		return String.join(", ", distinct);
+	}
+
+	private static void checkToken(String token, String kind) {
+		if (!isToken(token)) {
+			throw new IllegalArgumentException(String.format("Invalid preflight %s \"%s\"", kind, token));
+		}
+	}
+
+	/**
+	 * @return whether the value is a token as HTTP method and header names must be
+	 */
+	static boolean isToken(String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c <= ' ' || c >= 0x7f || TOKEN_SEPARATORS.indexOf(c) >= 0) {
+				return false;
+			}
+		}
+		return !value.isEmpty();
+	}
+}
@@ -0,0 +1,200 @@
+package com.tasktop.servlet.cors;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of rejections per pair of Origin header value and effective Host header value, and blocks a pair
+ * that exceeds the limit for a while, so that requests carrying it can be rejected from their headers alone.
+ * <p>
+ * A given pair is rejected for the same reason every time, so blocking it only spares the work of finding that
+ * reason again. Keying on the pair rather than on the origin alone keeps a forged request from blocking an origin for
+ * the hosts it is legitimately sent to.
+ * <p>
+ * Each pair has a token bucket, kept as the single time at which it would be full again, so that taking a token is
+ * one compare-and-set. Buckets are held in a set-associative table of fixed size: when a set is full, the entry that
+ * has been idle the longest is replaced, and blocked entries count as active until they expire. Concurrent writers may
+ * race to replace a slot, in which case one of the buckets is lost, which only delays blocking its pair.
+ */
+class RejectionRateLimiter {
+
+	static final RejectionRateLimiter DISABLED = new RejectionRateLimiter(0, 1, 1, 0, System::nanoTime);
+
+	private static final int WAYS = 4;
+	private static final int MAXIMUM_TRACKED_HEADER_LENGTH = 512;
+
+	private final AtomicReferenceArray<Bucket> buckets;
+	private final int ways;
+	private final int setMask;
+	private final long intervalNanos;
+	private final long burstNanos;
+	private final long blockNanos;
+	private final LongSupplier nanoClock;
+
+	/**
+	 * @param maximumSize
+	 *            the maximum number of pairs to track, or zero to disable the limiter
+	 * @param rejectionsPerSecond
+	 *            the sustained rate of rejections a pair may cause without being blocked
+	 * @param burst
+	 *            the number of rejections a pair may cause at once without being blocked
+	 * @param blockMillis
+	 *            for how long a pair is blocked once it exceeds the limit
+	 */
+	RejectionRateLimiter(int maximumSize, int rejectionsPerSecond, int burst, long blockMillis) {
+		this(maximumSize, rejectionsPerSecond, burst, blockMillis, System::nanoTime);
+	}
+
+	RejectionRateLimiter(int maximumSize, int rejectionsPerSecond, int burst, long blockMillis,
+			LongSupplier nanoClock) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+		}
+		if (rejectionsPerSecond <= 0 || burst <= 0) {
+			throw new IllegalArgumentException("rejectionsPerSecond and burst must be positive");
+		}
+		this.ways = Math.min(WAYS, maximumSize);
+		int sets = ways == 0 ? 0 : Integer.highestOneBit(maximumSize / ways);
+		this.setMask = sets - 1;
+		this.buckets = new AtomicReferenceArray<>(sets * ways);
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rejectionsPerSecond;
+		this.burstNanos = intervalNanos * burst;
+		this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+		this.nanoClock = nanoClock;
+	}
+
+	boolean isEnabled() {
+		return ways > 0;
+	}
+
+	int capacity() {
+		return buckets.length();
+	}
+
+	/**
+	 * Looks the pair up without parsing either value. Reads the clock only for a pair that has been blocked.
+	 *
+	 * @param origin
+	 *            the Origin header value, or {@code null}
+	 * @param hostHeader
+	 *            the effective Host header value, or {@code null}
+	 */
+	boolean isBlocked(String origin, String hostHeader) {
+		if (!isEnabled() || origin == null || hostHeader == null) {
+			return false;
+		}
+		Bucket bucket = find(hash(origin, hostHeader), origin, hostHeader);
+		if (bucket == null || !bucket.blocked) {
+			return false;
+		}
+		if (bucket.blockedUntil - nanoClock.getAsLong() > 0) {
+			return true;
+		}
+		bucket.blocked = false;
+		return false;
+	}
+
+	/**
+	 * Takes a token for a rejection the pair has caused, and blocks the pair if there is none left.
+	 *
+	 * @return whether the pair has been blocked
+	 */
+	boolean rejected(String origin, String hostHeader) {
+		if (!isEnabled() || origin == null || hostHeader == null || origin.length() > MAXIMUM_TRACKED_HEADER_LENGTH
+				|| hostHeader.length() > MAXIMUM_TRACKED_HEADER_LENGTH) {
+			return false;
+		}
+		long now = nanoClock.getAsLong();
+		int hash = hash(origin, hostHeader);
+		Bucket bucket = find(hash, origin, hostHeader);
+		if (bucket == null) {
+			bucket = new Bucket(hash, origin, hostHeader, now);
+			replace(hash, bucket, now);
+		}
+		for (;;) {
+			long fullAt = bucket.fullAt;
+			long nextFullAt = Math.max(fullAt - now, 0) + now + intervalNanos;
+			if (nextFullAt - now > burstNanos) {
+				bucket.blockedUntil = now + blockNanos;
+				bucket.blocked = true;
+				return true;
+			}
+			if (Bucket.FULL_AT.compareAndSet(bucket, fullAt, nextFullAt)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Forgets every pair, lifting all blocks, for when the policy that decided the rejections has changed.
+	 */
+	void clear() {
+		for (int i = 0; i < buckets.length(); ++i) {
+			buckets.set(i, null);
+		}
+	}
+
+	private Bucket find(int hash, String origin, String hostHeader) {
+		int base = (hash & setMask) * ways;
+		for (int i = 0; i < ways; ++i) {
+			Bucket bucket = buckets.get(base + i);
+			if (bucket != null && bucket.matches(hash, origin, hostHeader)) {
+				return bucket;
+			}
+		}
+		return null;
+	}
+
+	private void replace(int hash, Bucket replacement, long now) {
+		int base = (hash & setMask) * ways;
+		int victim = base;
+		long longestIdle = Long.MIN_VALUE;
+		for (int i = base; i < base + ways; ++i) {
+			Bucket bucket = buckets.get(i);
+			if (bucket == null) {
+				victim = i;
+				break;
+			}
+			long idle = now - bucket.lastActive();
+			if (idle > longestIdle) {
+				longestIdle = idle;
+				victim = i;
+			}
+		}
+		buckets.set(victim, replacement);
+	}
+
+	private static int hash(String origin, String hostHeader) {
+		int hash = origin.hashCode() * 31 + hostHeader.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private static class Bucket {
+		static final AtomicLongFieldUpdater<Bucket> FULL_AT = AtomicLongFieldUpdater.newUpdater(Bucket.class,
+				"fullAt");
+
+		private final int hash;
+		private final String origin;
+		private final String hostHeader;
+		private volatile long fullAt;
+		private volatile long blockedUntil;
+		private volatile boolean blocked;
+
+		Bucket(int hash, String origin, String hostHeader, long now) {
+			this.hash = hash;
+			this.origin = origin;
+			this.hostHeader = hostHeader;
+			this.fullAt = now;
+		}
+
+		boolean matches(int hash, String origin, String hostHeader) {
+			return this.hash == hash && this.origin.equals(origin) && this.hostHeader.equals(hostHeader);
+		}
+
+		long lastActive() {
+			return blocked && blockedUntil - fullAt > 0 ? blockedUntil : fullAt;
+		}
+	}
+}
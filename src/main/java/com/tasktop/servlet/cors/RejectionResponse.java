@@ -0,0 +1,118 @@
+package com.tasktop.servlet.cors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A 403 response written directly instead of through {@link HttpServletResponse#sendError(int, String)}, which has
+ * containers look up an error page, dispatch to it and render it. The body is encoded once when the policy is built,
+ * in the charset that the content type names, so rejecting a request costs a few header writes and one write of the
+ * same bytes.
+ */
+class RejectionResponse {
+
+	static final String DEFAULT_BODY = "Forbidden";
+	static final String DEFAULT_CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+	static final String HEADER_CACHE_CONTROL = "Cache-Control";
+	static final String HEADER_X_CONTENT_TYPE_OPTIONS = "X-Content-Type-Options";
+
+	private static final String CACHE_CONTROL_NO_STORE = "no-store";
+	private static final String NOSNIFF = "nosniff";
+	private static final String CHARSET_PARAMETER = "charset";
+
+	private final byte[] body;
+	private final String contentType;
+
+	/**
+	 * @param body
+	 *            the body, encoded in the charset named by the content type, or in UTF-8 if it names none
+	 * @throws IllegalArgumentException
+	 *             if the content type contains a control character or names an unsupported charset, or the body
+	 *             cannot be encoded in that charset
+	 */
+	RejectionResponse(String body, String contentType) {
+		for (int i = 0; i < contentType.length(); ++i) {
+			char c = contentType.charAt(i);
+			if ((c < ' ' && c != '\t') || c == 0x7f) {
+				throw new IllegalArgumentException(
+						String.format("Invalid content type \"%s\" for rejection response", contentType));
+			}
+		}
+		this.contentType = contentType.trim();
+		this.body = encode(body, getCharset(this.contentType));
+	}
+
+	void writeTo(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+		response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_NO_STORE);
+		response.setHeader(HEADER_X_CONTENT_TYPE_OPTIONS, NOSNIFF);
+		response.setContentType(contentType);
+		response.setContentLength(body.length);
+		if (body.length > 0) {
+			// left to the container to flush along with the headers when the request completes
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * @return the charset named by the {@code charset} parameter of the content type, or UTF-8 if there is none
+	 */
+	private static Charset getCharset(String contentType) {
+		int parameterStart = contentType.indexOf(';');
+		while (parameterStart >= 0) {
+			int parameterEnd = contentType.indexOf(';', parameterStart + 1);
+			String parameter = contentType.substring(parameterStart + 1,
+					parameterEnd < 0 ? contentType.length() : parameterEnd).trim();
+			int equals = parameter.indexOf('=');
+			if (equals >= 0 && parameter.substring(0, equals).trim().equalsIgnoreCase(CHARSET_PARAMETER)) {
+				String name = parameter.substring(equals + 1).trim();
+				if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+					name = name.substring(1, name.length() - 1);
+				}
+				try {
+					return Charset.forName(name);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(String.format(
+							"Unsupported charset \"%s\" in content type \"%s\" for rejection response", name,
+							contentType), e);
+				}
+			}
+			parameterStart = parameterEnd;
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Encodes strictly, so that a body the charset cannot represent fails the configuration instead of being sent
+	 * with replacement characters.
+	 */
+	private static byte[] encode(String body, Charset charset) {
+		ByteBuffer encoded;
+		try {
+			encoded = charset.newEncoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).encode(CharBuffer.wrap(body));
+		} catch (CharacterCodingException e) {
+			throw new IllegalArgumentException(
+					String.format("Rejection response body cannot be encoded in %s", charset.name()), e);
+		}
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		return bytes;
+	}
+
+	int getContentLength() {
+		return body.length;
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+}
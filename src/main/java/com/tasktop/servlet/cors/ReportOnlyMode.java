@@ -0,0 +1,35 @@
+package com.tasktop.servlet.cors;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Has {@link CorsHeaderScrutinyServletFilter} pass every request on and only record the requests it would have
+ * rejected, so that a policy can be tried out on live traffic before it is enforced. Only a random sample of requests
+ * is scrutinized, so that the trial can be kept cheap under full load.
+ */
+class ReportOnlyMode {
+
+	private final double sampleRate;
+
+	/**
+	 * @param sampleRate
+	 *            the fraction of requests to scrutinize, from 0 to 1
+	 */
+	ReportOnlyMode(double sampleRate) {
+		if (!(sampleRate >= 0 && sampleRate <= 1)) {
+			throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return whether to scrutinize the current request; decided without drawing a random number at a rate of 1
+	 */
+	boolean sample() {
+		return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+}
@@ -1,41 +1,81 @@
 package com.tasktop.servlet.cors;
 
-import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
-import java.util.function.Function;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
 class RequestPathMatcher {
-	private static final String PATTERN_OR = "|";
-	private static final String PATTERN_PREFIX = "^";
+	private static final String MATCH_ALL_PREFIX = "";
 	
-	private final Pattern pathPattern;
+	private final PathPrefixTrie pathPrefixes;
+	private final PathPatternAutomaton pathPatterns;
+	
+	private volatile DecodedContextPath decodedContextPath;
 		
 	RequestPathMatcher(List<String> paths) {
-		String urlExclusionRegex = paths.stream()
-			.map(this::decodePath)
-			.map(Pattern::quote)
-			.map(addPatternPrefix())
-			.collect(joining(PATTERN_OR));
-		
-		this.pathPattern = Pattern.compile(urlExclusionRegex);
+		// an empty list of prefixes has always matched every request
+		this(paths.isEmpty() ? Collections.singletonList(MATCH_ALL_PREFIX) : paths, Collections.emptyList());
+	}
+
+	/**
+	 * Matches requests to a path that starts with one of the prefixes or matches one of the patterns as a whole, where
+	 * either list may be empty.
+	 */
+	RequestPathMatcher(List<String> paths, List<String> patterns) {
+		this.pathPrefixes = new PathPrefixTrie(decodePaths(paths));
+		// wildcards and slashes are told apart before decoding, so that escaped ones stay literal
+		this.pathPatterns = new PathPatternAutomaton(patterns, RequestPathMatcher::decodePath);
 	}
 
-	private Function<String, String> addPatternPrefix() {
-		return pattern -> PATTERN_PREFIX + pattern;
+	private List<String> decodePaths(List<String> paths) {
+		return paths.stream()
+			.map(RequestPathMatcher::decodePath)
+			.collect(toList());
 	}
 
 	boolean matchesRequest(HttpServletRequest request) {
-		return pathPattern.matcher(getRequestUriWithoutContextPath(request)).find();
+		String requestUri = request.getRequestURI();
+		int contextPathLength = getDecodedContextPathLength(request.getContextPath());
+		if (requiresDecoding(requestUri) || contextPathLength > requestUri.length()) {
+			return matches(decodePath(requestUri).substring(contextPathLength), 0);
+		}
+		// decoding would leave the request URI unchanged, so match it in place
+		return matches(requestUri, contextPathLength);
+	}
+
+	private boolean matches(String path, int fromIndex) {
+		return pathPrefixes.matchesPrefixOf(path, fromIndex) || pathPatterns.matches(path, fromIndex);
+	}
+	
+	private int getDecodedContextPathLength(String contextPath) {
+		DecodedContextPath decoded = decodedContextPath;
+		if (decoded == null || !decoded.contextPath.equals(contextPath)) {
+			decoded = new DecodedContextPath(contextPath, decodePath(contextPath).length());
+			decodedContextPath = decoded;
+		}
+		return decoded.length;
+	}
+	
+	private static boolean requiresDecoding(String path) {
+		for (int i = 0; i < path.length(); ++i) {
+			char c = path.charAt(i);
+			if (c == '%' || c == '+') {
+				return true;
+			}
+		}
+		return false;
 	}
 	
-	private String decodePath(String path) {
+	static String decodePath(String path) {
+		if (!requiresDecoding(path)) {
+			return path;
+		}
 		try {
 			return URLDecoder.decode(path, StandardCharsets.UTF_8.name());
 		} catch (UnsupportedEncodingException e) {
@@ -43,7 +83,17 @@ class RequestPathMatcher {
 		}
 	}
 	
-	private String getRequestUriWithoutContextPath(HttpServletRequest request) {
-		return decodePath(request.getRequestURI()).substring(decodePath(request.getContextPath()).length());
+	/**
+	 * The context path is the same for every request to a web application, so its decoded length is computed once and
+	 * reused for as long as requests carry the same context path.
+	 */
+	private static class DecodedContextPath {
+		private final String contextPath;
+		private final int length;
+		
+		DecodedContextPath(String contextPath, int length) {
+			this.contextPath = contextPath;
+			this.length = length;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,244 @@
+package com.tasktop.servlet.cors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Writes rejected requests to a local file from a background thread. Request threads only copy references to the
+ * request's values into an {@link AuditRingBuffer} and drop the event if the buffer is full, so a flood of rejected
+ * requests cannot slow them down. The writer drains the buffer in batches, flushing once per batch, and rolls the
+ * file over to {@code file.1}, {@code file.2} and so on once it exceeds the maximum size. If writing fails, the events
+ * are dropped until the file is reopened, which is first tried for the next event and then at growing intervals.
+ */
+class RollingFileAuditLog implements AuditLog {
+
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final long MIN_REOPEN_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final long MAX_REOPEN_DELAY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private final AuditRingBuffer buffer;
+	private final Path file;
+	private final long maxFileSize;
+	private final int maxBackupFiles;
+	private final BiConsumer<String, IOException> errorLog;
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final StringBuilder line = new StringBuilder();
+	private final Consumer<AuditEvent> eventWriter = this::write;
+	private final Thread writerThread;
+	private volatile boolean closed;
+	private Writer writer;
+	private long fileSize;
+	private long reopenNanos;
+	private long reopenDelayNanos;// zero while writing succeeds
+
+	RollingFileAuditLog(Path file, int bufferSize, long maxFileSize, int maxBackupFiles) throws IOException {
+		this(file, bufferSize, maxFileSize, maxBackupFiles, (message, e) -> {
+			// not reported
+		});
+	}
+
+	/**
+	 * @param maxBackupFiles
+	 *            the number of rolled over files to keep, or zero to truncate the file when it is full
+	 * @param errorLog
+	 *            told from the writer thread when writing starts failing, with a {@code null} exception when it
+	 *            succeeds again
+	 * @throws IOException
+	 *             if the file cannot be opened for appending
+	 */
+	RollingFileAuditLog(Path file, int bufferSize, long maxFileSize, int maxBackupFiles,
+			BiConsumer<String, IOException> errorLog) throws IOException {
+		this.buffer = new AuditRingBuffer(bufferSize);
+		this.file = file.toAbsolutePath();
+		this.maxFileSize = maxFileSize;
+		this.maxBackupFiles = maxBackupFiles;
+		this.errorLog = errorLog;
+		openFile();
+		writerThread = new Thread(this::drain, "cors-filter-audit-log-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	@Override
+	public void requestRejected(HttpServletRequest request, Verdict reason) {
+		record(request, reason, true);
+	}
+
+	@Override
+	public void requestReported(HttpServletRequest request, Verdict reason) {
+		record(request, reason, false);
+	}
+
+	private void record(HttpServletRequest request, Verdict reason, boolean enforced) {
+		long position = buffer.claim();
+		if (position == AuditRingBuffer.FULL) {
+			dropped.increment();
+			return;
+		}
+		AuditEvent event = buffer.get(position);
+		event.timestampMillis = System.currentTimeMillis();
+		event.reason = reason;
+		event.enforced = enforced;
+		event.method = request.getMethod();
+		event.path = request.getRequestURI();
+		event.host = request.getHeader(CorsHeaderScrutinyEngine.HEADER_HOST);
+		event.forwardedHost = request.getHeader(CorsHeaderScrutinyEngine.HEADER_X_FORWARDED_HOST);
+		event.origin = request.getHeader(CorsHeaderScrutinyEngine.HEADER_ORIGIN);
+		event.referer = request.getHeader(CorsHeaderScrutinyEngine.HEADER_REFERER);
+		buffer.publish(position);
+	}
+
+	@Override
+	public long getWrittenCount() {
+		return written.sum();
+	}
+
+	@Override
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void close() {
+		buffer.close();// before closed is set, so that the writer thread sees no claim after it stops
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		for (;;) {
+			boolean stopping = closed;// read before draining, so that nothing published before close() is missed
+			int batch = 0;
+			while (batch < buffer.capacity() && buffer.poll(eventWriter)) {
+				++batch;
+			}
+			if (batch > 0) {
+				flush();
+			} else if (stopping && buffer.isDrained()) {
+				break;// otherwise a request thread has claimed a slot that it is about to publish
+			} else {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+		closeFile();
+	}
+
+	private void write(AuditEvent event) {
+		if (writer == null && !reopen()) {
+			dropped.increment();
+			return;
+		}
+		line.setLength(0);
+		event.appendTo(line);
+		try {
+			writer.append(line);
+		} catch (IOException e) {
+			dropped.increment();
+			failed(e);
+			return;
+		}
+		fileSize += line.length();// an upper bound on the encoded size would do as well
+		written.increment();
+		if (fileSize >= maxFileSize) {
+			try {
+				rollOver();
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+
+	private void flush() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				failed(e);
+				return;
+			}
+			if (reopenDelayNanos != 0) {
+				reopenDelayNanos = 0;
+				errorLog.accept("Resumed writing audit log file " + file, null);
+			}
+		}
+	}
+
+	private boolean reopen() {
+		if (System.nanoTime() - reopenNanos < 0) {
+			return false;
+		}
+		try {
+			openFile();
+			return true;
+		} catch (IOException e) {
+			failed(e);
+			return false;
+		}
+	}
+
+	private void rollOver() throws IOException {
+		writer.close();
+		writer = null;
+		for (int i = maxBackupFiles; i > 0; --i) {
+			Path source = i == 1 ? file : backupFile(i - 1);
+			if (Files.exists(source)) {
+				Files.move(source, backupFile(i), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		if (maxBackupFiles == 0) {
+			Files.delete(file);
+		}
+		openFile();
+	}
+
+	private Path backupFile(int index) {
+		return file.resolveSibling(file.getFileName() + "." + index);
+	}
+
+	private void openFile() throws IOException {
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		fileSize = Files.size(file);
+	}
+
+	private void failed(IOException e) {
+		closeFile();
+		if (reopenDelayNanos == 0) {
+			errorLog.accept(
+					"Cannot write audit log file " + file + ", dropping rejected requests until it can be reopened", e);
+		}
+		reopenNanos = System.nanoTime() + reopenDelayNanos;
+		reopenDelayNanos = Math.min(MAX_REOPEN_DELAY_NANOS, Math.max(MIN_REOPEN_DELAY_NANOS, 2 * reopenDelayNanos));
+	}
+
+	private void closeFile() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				// already failed or nothing left to write
+			}
+			writer = null;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package com.tasktop.servlet.cors;
+
+import static com.tasktop.servlet.cors.ConfigurationParameterParser.parseParameter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable snapshot of the configuration that decides how requests are scrutinized. The filter holds its current
+ * policy in a single volatile reference, so a reloaded policy is only ever seen fully built.
+ */
+class ScrutinyPolicy {
+
+	static final ScrutinyPolicy DEFAULT = new ScrutinyPolicy(HostPolicy.DEFAULT, VirtualHostPolicies.NONE,
+			new HostVerdictCache(0), Optional.empty(), Optional.empty(), false, Optional.empty(), Optional.empty());
+
+	private static final int DEFAULT_PREFLIGHT_MAX_AGE_SECONDS = 600;
+
+	private static final double DEFAULT_REPORT_ONLY_SAMPLE_RATE = 1;
+
+	private static final int IDN_HOST_CACHE_SIZE = 64;
+
+	private static final String VIRTUAL_HOST_PARAMETER_PREFIX = "virtual-host.";
+
+	private final HostPolicy defaultHostPolicy;
+	private final VirtualHostPolicies virtualHostPolicies;
+	private final HostVerdictCache hostVerdictCache;
+	private final Optional<PreflightResponse> preflightResponse;
+	private final Optional<ReportOnlyMode> reportOnlyMode;
+	private final boolean fetchMetadataEnabled;
+	private final Optional<TrustedProxies> trustedProxies;
+	private final Optional<RejectionResponse> rejectionResponse;
+	private final IdnHostNormalizer idnHostNormalizer = new IdnHostNormalizer(IDN_HOST_CACHE_SIZE);
+	private final CorsHeaderScrutinyEngine engine = new CorsHeaderScrutinyEngine(this);
+
+	ScrutinyPolicy(Optional<RequestPathMatcher> requestExclusionMatcher, TrustedOrigins trustedOrigins,
+			HostVerdictCache hostVerdictCache) {
+		this(new HostPolicy(requestExclusionMatcher, trustedOrigins), VirtualHostPolicies.NONE, hostVerdictCache,
+				Optional.empty(), Optional.empty(), false, Optional.empty(), Optional.empty());
+	}
+
+	ScrutinyPolicy(HostPolicy defaultHostPolicy, VirtualHostPolicies virtualHostPolicies,
+			HostVerdictCache hostVerdictCache, Optional<PreflightResponse> preflightResponse,
+			Optional<ReportOnlyMode> reportOnlyMode, boolean fetchMetadataEnabled,
+			Optional<TrustedProxies> trustedProxies, Optional<RejectionResponse> rejectionResponse) {
+		this.defaultHostPolicy = defaultHostPolicy;
+		this.virtualHostPolicies = virtualHostPolicies;
+		this.hostVerdictCache = hostVerdictCache;
+		this.preflightResponse = preflightResponse;
+		this.reportOnlyMode = reportOnlyMode;
+		this.fetchMetadataEnabled = fetchMetadataEnabled;
+		this.trustedProxies = trustedProxies;
+		this.rejectionResponse = rejectionResponse;
+	}
+
+	/**
+	 * @param parameters
+	 *            looks up the value of a configuration parameter by name, or returns {@code null}
+	 * @throws IllegalArgumentException
+	 *             if a parameter has an invalid value
+	 */
+	static ScrutinyPolicy fromParameters(UnaryOperator<String> parameters) {
+		return new Compiler(parameters).compile();
+	}
+
+	boolean hasVirtualHosts() {
+		return !virtualHostPolicies.isEmpty();
+	}
+
+	/**
+	 * @param hostHeader
+	 *            the value of the Host or X-Forwarded-Host header, or {@code null}
+	 */
+	HostPolicy getHostPolicy(String hostHeader) {
+		HostPolicy hostPolicy = virtualHostPolicies.get(hostHeader);
+		return hostPolicy == null ? defaultHostPolicy : hostPolicy;
+	}
+
+	HostPolicy getDefaultHostPolicy() {
+		return defaultHostPolicy;
+	}
+
+	Optional<RequestPathMatcher> getRequestExclusionMatcher() {
+		return defaultHostPolicy.getRequestExclusionMatcher();
+	}
+
+	TrustedOrigins getTrustedOrigins() {
+		return defaultHostPolicy.getTrustedOrigins();
+	}
+
+	/**
+	 * Verdicts depend on the trusted origins, so every policy has a cache of its own. Within a policy the effective
+	 * host that is part of the cache key also determines the virtual host, so one cache serves them all.
+	 */
+	HostVerdictCache getHostVerdictCache() {
+		return hostVerdictCache;
+	}
+
+	/**
+	 * @return whether the Sec-Fetch-Site header is consulted before the Origin and Referer headers
+	 */
+	boolean isFetchMetadataEnabled() {
+		return fetchMetadataEnabled;
+	}
+
+	/**
+	 * @return the proxies whose forwarding headers are believed, or empty if those headers are believed from any peer
+	 */
+	Optional<TrustedProxies> getTrustedProxies() {
+		return trustedProxies;
+	}
+
+	IdnHostNormalizer getIdnHostNormalizer() {
+		return idnHostNormalizer;
+	}
+
+	/**
+	 * @return the engine scrutinizing headers according to this policy
+	 */
+	CorsHeaderScrutinyEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return the answer to allowed preflight requests, or empty if preflights are passed on to the filter chain
+	 */
+	Optional<PreflightResponse> getPreflightResponse() {
+		return preflightResponse;
+	}
+
+	/**
+	 * @return the response written to reject a request, or empty if the container's error page is sent
+	 */
+	Optional<RejectionResponse> getRejectionResponse() {
+		return rejectionResponse;
+	}
+
+	/**
+	 * @return the report-only mode, or empty if verdicts are enforced
+	 */
+	Optional<ReportOnlyMode> getReportOnlyMode() {
+		return reportOnlyMode;
+	}
+
+	/**
+	 * Builds the policy, compiling each distinct list of exclusion paths or trusted origins once and sharing the
+	 * result between every virtual host that gives the same list.
+	 */
+	private static class Compiler {
+
+		private final UnaryOperator<String> parameters;
+		private final Map<List<List<String>>, Optional<RequestPathMatcher>> matchers = new HashMap<>();
+		private final Map<List<String>, TrustedOrigins> origins = new HashMap<>();
+		private final Map<List<String>, ExemptMethods> exemptMethods = new HashMap<>();
+		private final Map<List<Object>, HostPolicy> hostPolicies = new HashMap<>();
+
+		Compiler(UnaryOperator<String> parameters) {
+			this.parameters = parameters;
+		}
+
+		ScrutinyPolicy compile() {
+			ExclusionLists defaultExclusions = parseExclusions("", ExclusionLists.NONE);
+			Optional<RequestPathMatcher> defaultMatcher = compileMatcher(defaultExclusions);
+			TrustedOrigins defaultOrigins = compileTrustedOrigins(
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS, TrustedOrigins.NONE);
+			ExemptMethods defaultExemptMethods = compileExemptMethods(
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS, ExemptMethods.NONE);
+			HostPolicy defaultHostPolicy = hostPolicy(defaultMatcher, defaultOrigins, defaultExemptMethods);
+
+			Map<String, HostPolicy> policiesByHost = new LinkedHashMap<>();
+			String virtualHosts = parameters.apply(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS);
+			if (virtualHosts != null) {
+				for (String host : ConfigurationParameterParser.parseVirtualHosts(virtualHosts)) {
+					String prefix = VIRTUAL_HOST_PARAMETER_PREFIX + host + '.';
+					policiesByHost.put(host,
+							hostPolicy(
+									compileMatcher(parseExclusions(prefix, defaultExclusions)),
+									compileTrustedOrigins(prefix + CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS,
+											defaultOrigins),
+									compileExemptMethods(prefix + CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS,
+											defaultExemptMethods)));
+				}
+			}
+
+			int hostVerdictCacheSize = parseParameter(parameters,
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE,
+					ConfigurationParameterParser::parseNonNegativeInteger, 0);
+			return new ScrutinyPolicy(defaultHostPolicy, new VirtualHostPolicies(policiesByHost),
+					new HostVerdictCache(hostVerdictCacheSize), compilePreflightResponse(), compileReportOnlyMode(),
+					parseParameter(parameters, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA,
+							ConfigurationParameterParser::parseBoolean, false),
+					compileTrustedProxies(), compileRejectionResponse());
+		}
+
+		private Optional<RejectionResponse> compileRejectionResponse() {
+			boolean direct = parseParameter(parameters,
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_DIRECT,
+					ConfigurationParameterParser::parseBoolean, false);
+			if (!direct) {
+				return Optional.empty();
+			}
+			String body = parameters.apply(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_BODY);
+			String contentType = parameters
+					.apply(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_CONTENT_TYPE);
+			return Optional.of(new RejectionResponse(body == null ? RejectionResponse.DEFAULT_BODY : body,
+					contentType == null ? RejectionResponse.DEFAULT_CONTENT_TYPE : contentType));
+		}
+
+		private Optional<TrustedProxies> compileTrustedProxies() {
+			String proxies = parameters.apply(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_PROXIES);
+			return proxies == null ? Optional.empty()
+					: Optional.of(new TrustedProxies(ConfigurationParameterParser.parseList(proxies)));
+		}
+
+		private ExemptMethods compileExemptMethods(String parameterName, ExemptMethods defaultMethods) {
+			String value = parameters.apply(parameterName);
+			if (value == null) {
+				return defaultMethods;
+			}
+			List<String> methods = ConfigurationParameterParser.parseList(value);
+			return exemptMethods.computeIfAbsent(canonical(methods), ExemptMethods::new);
+		}
+
+		private Optional<ReportOnlyMode> compileReportOnlyMode() {
+			boolean reportOnly = parseParameter(parameters, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY,
+					ConfigurationParameterParser::parseBoolean, false);
+			if (!reportOnly) {
+				return Optional.empty();
+			}
+			double sampleRate = parseParameter(parameters,
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY_SAMPLE_RATE,
+					ConfigurationParameterParser::parseFraction, DEFAULT_REPORT_ONLY_SAMPLE_RATE);
+			return Optional.of(new ReportOnlyMode(sampleRate));
+		}
+
+		private Optional<PreflightResponse> compilePreflightResponse() {
+			String allowedMethods = parameters.apply(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+			if (allowedMethods == null) {
+				return Optional.empty();
+			}
+			List<String> allowedHeaders = parseParameter(parameters,
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_HEADERS,
+					(name, value) -> ConfigurationParameterParser.parseList(value), Collections.emptyList());
+			boolean allowCredentials = parseParameter(parameters,
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOW_CREDENTIALS,
+					ConfigurationParameterParser::parseBoolean, false);
+			int maxAgeSeconds = parseParameter(parameters, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_MAX_AGE,
+					ConfigurationParameterParser::parseNonNegativeInteger, DEFAULT_PREFLIGHT_MAX_AGE_SECONDS);
+			return Optional.of(new PreflightResponse(ConfigurationParameterParser.parseList(allowedMethods), allowedHeaders,
+					allowCredentials, maxAgeSeconds));
+		}
+
+		/**
+		 * Parses the exclusion prefixes and patterns given under the parameter name prefix, each falling back to the
+		 * list given by {@code defaults} if not given.
+		 */
+		private ExclusionLists parseExclusions(String parameterNamePrefix, ExclusionLists defaults) {
+			String prefixesName = parameterNamePrefix + CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PREFIX;
+			String patternsName = parameterNamePrefix + CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PATH_EXCLUSION_PATTERN;
+			return new ExclusionLists(
+					parseParameter(parameters, prefixesName, ConfigurationParameterParser::parseExclusionPaths,
+							defaults.prefixes),
+					parseParameter(parameters, patternsName, ConfigurationParameterParser::parseExclusionPatterns,
+							defaults.patterns));
+		}
+
+		private Optional<RequestPathMatcher> compileMatcher(ExclusionLists exclusions) {
+			if (exclusions.prefixes == null && exclusions.patterns == null) {
+				return Optional.empty();
+			}
+			// both lists are already sorted and free of duplicates
+			return matchers.computeIfAbsent(Arrays.asList(exclusions.prefixes, exclusions.patterns),
+					key -> Optional.of(exclusions.patterns == null ? new RequestPathMatcher(exclusions.prefixes)
+							: new RequestPathMatcher(
+									exclusions.prefixes == null ? Collections.emptyList() : exclusions.prefixes,
+									exclusions.patterns)));
+		}
+
+		private TrustedOrigins compileTrustedOrigins(String parameterName, TrustedOrigins defaultOrigins) {
+			String value = parameters.apply(parameterName);
+			if (value == null) {
+				return defaultOrigins;
+			}
+			List<String> hosts = ConfigurationParameterParser.parseTrustedOrigins(value);
+			return origins.computeIfAbsent(canonical(hosts), TrustedOrigins::new);
+		}
+
+		private HostPolicy hostPolicy(Optional<RequestPathMatcher> matcher, TrustedOrigins trustedOrigins,
+				ExemptMethods methods) {
+			return hostPolicies.computeIfAbsent(Arrays.asList(matcher, trustedOrigins, methods),
+					key -> new HostPolicy(matcher, trustedOrigins, methods));
+		}
+
+		private static List<String> canonical(List<String> values) {
+			return Arrays.asList(new TreeSet<>(values).toArray(new String[0]));
+		}
+
+		/**
+		 * The exclusion prefixes and patterns for a host, either of which is {@code null} if not given.
+		 */
+		private static class ExclusionLists {
+			static final ExclusionLists NONE = new ExclusionLists(null, null);
+
+			private final List<String> prefixes;
+			private final List<String> patterns;
+
+			ExclusionLists(List<String> prefixes, List<String> patterns) {
+				this.prefixes = prefixes;
+				this.patterns = patterns;
+			}
+		}
+	}
+}
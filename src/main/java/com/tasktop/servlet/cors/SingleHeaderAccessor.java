@@ -0,0 +1,65 @@
+package com.tasktop.servlet.cors;
+
+import java.util.function.Function;
+
+/**
+ * A {@link HeaderAccessor} that reads a header and whether it is repeated at once, for the accessors of this package,
+ * such as the Servlet API's, that get all values of a header from a single lookup. Kept out of the public API, since
+ * the value standing in for a repeated header is compared by identity.
+ *
+ * @param <R>
+ *            the type of request
+ */
+interface SingleHeaderAccessor<R> extends HeaderAccessor<R> {
+
+	/**
+	 * Stands in for the value of a header that was given more than once; compared by identity.
+	 */
+	String REPEATED = new String("");
+
+	/**
+	 * @return the value of the header, {@code null} if it is absent, or {@link #REPEATED} if it is given more than once
+	 */
+	String getSingleHeader(R request, String name);
+
+	@Override
+	default HeaderAccessor<R> withRemoteAddress(Function<? super R, String> remoteAddress) {
+		SingleHeaderAccessor<R> headers = this;
+		return new SingleHeaderAccessor<R>() {
+
+			@Override
+			public String getSingleHeader(R request, String name) {
+				return headers.getSingleHeader(request, name);
+			}
+
+			@Override
+			public String getFirstHeader(R request, String name) {
+				return headers.getFirstHeader(request, name);
+			}
+
+			@Override
+			public boolean isHeaderRepeated(R request, String name) {
+				return headers.isHeaderRepeated(request, name);
+			}
+
+			@Override
+			public String getRemoteAddress(R request) {
+				return remoteAddress.apply(request);
+			}
+		};
+	}
+
+	/**
+	 * @return the value of the header, {@code null} if it is absent, or {@link #REPEATED} if it is given more than once
+	 */
+	static <R> String read(HeaderAccessor<R> headers, R request, String name) {
+		if (headers instanceof SingleHeaderAccessor) {
+			return ((SingleHeaderAccessor<R>) headers).getSingleHeader(request, name);
+		}
+		String value = headers.getFirstHeader(request, name);
+		if (value == null) {
+			return null;
+		}
+		return headers.isHeaderRepeated(request, name) ? REPEATED : value;
+	}
+}
@@ -0,0 +1,134 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Hosts that are trusted as the origin of requests in addition to the request's own host. Entries are either exact host
+ * names, held in an open-addressed hash table, or wildcards of the form {@code *.example.com}, held in a trie of the
+ * reversed suffixes, both in lower case ASCII and compared ignoring ASCII case. A wildcard matches any host ending in
+ * the suffix with at least one more label, but not the suffix domain itself. Lookups work on a span of a larger string,
+ * so the host need not be extracted from the Origin or Referer header, and their cost does not depend on the number of
+ * entries.
+ */
+class TrustedOrigins {
+
+	static final TrustedOrigins NONE = new TrustedOrigins(Collections.emptyList());
+
+	private static final String WILDCARD_PREFIX = "*.";
+
+	private final String[] exactHosts;
+	private final FlatCharTrie reversedSuffixes;
+	private final boolean empty;
+
+	TrustedOrigins(Collection<String> hosts) {
+		int tableSize = Integer.highestOneBit(Math.max(1, hosts.size()) * 2 - 1) << 1;
+		exactHosts = new String[tableSize];
+		CharTrieNode suffixes = new CharTrieNode();
+		for (String host : hosts) {
+			if (host.startsWith(WILDCARD_PREFIX)) {
+				addSuffix(suffixes, toAscii(checkValidHost(host.substring(WILDCARD_PREFIX.length()), host), host));
+			} else {
+				addExactHost(toAscii(checkValidHost(host, host), host).intern());
+			}
+		}
+		reversedSuffixes = new FlatCharTrie(suffixes);
+		empty = hosts.isEmpty();
+	}
+
+	boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @return whether the host spanning {@code start} to {@code end} of {@code value} is trusted
+	 */
+	boolean contains(String value, int start, int end) {
+		if (empty) {
+			return false;
+		}
+		return containsExactHost(value, start, end) || matchesSuffix(value, start, end);
+	}
+
+	private boolean containsExactHost(String value, int start, int end) {
+		int length = end - start;
+		int mask = exactHosts.length - 1;
+		for (int index = hash(value, start, end) & mask;; index = (index + 1) & mask) {
+			String host = exactHosts[index];
+			if (host == null) {
+				return false;
+			}
+			if (host.length() == length && UriHostScanner.regionMatchesIgnoreCase(host, 0, value, start, length)) {
+				return true;
+			}
+		}
+	}
+
+	private boolean matchesSuffix(String value, int start, int end) {
+		int node = FlatCharTrie.ROOT;
+		for (int i = end - 1; i > start; --i) {
+			node = reversedSuffixes.child(node, UriHostScanner.toLowerCase(value.charAt(i)));
+			if (node == FlatCharTrie.NO_NODE) {
+				return false;
+			}
+			if (reversedSuffixes.isTerminal(node)) {
+				return true;// at least the character at start remains as a further label
+			}
+		}
+		return false;
+	}
+
+	private void addExactHost(String host) {
+		int mask = exactHosts.length - 1;
+		int index = hash(host, 0, host.length()) & mask;
+		while (exactHosts[index] != null) {
+			if (exactHosts[index].equals(host)) {
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		exactHosts[index] = host;
+	}
+
+	private static void addSuffix(CharTrieNode root, String domain) {
+		String suffix = "." + domain;
+		CharTrieNode node = root;
+		for (int i = suffix.length() - 1; i >= 0; --i) {
+			if (node.isTerminal()) {
+				return;// a shorter suffix already matches every host below this node
+			}
+			node = node.getOrAddChild(suffix.charAt(i));
+		}
+		node.markTerminal();
+	}
+
+	private static String checkValidHost(String host, String entry) {
+		if (host.isEmpty() || host.startsWith(".") || host.endsWith(".") || host.contains("*")) {
+			throw new IllegalArgumentException(String.format("Invalid trusted origin \"%s\"", entry));
+		}
+		for (int i = 0; i < host.length(); ++i) {
+			char c = host.charAt(i);
+			if (c == '/' || c == ':' || c == '@' || Character.isWhitespace(c)) {
+				throw new IllegalArgumentException(
+						String.format("Invalid trusted origin \"%s\": expected a host name without scheme or port", entry));
+			}
+		}
+		return host;
+	}
+
+	private static String toAscii(String host, String entry) {
+		try {
+			return IdnHostNormalizer.toAscii(host);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("Invalid trusted origin \"%s\": %s", entry, e.getMessage()), e);
+		}
+	}
+
+	private static int hash(String value, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; ++i) {
+			hash = 31 * hash + UriHostScanner.toLowerCase(value.charAt(i));
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,268 @@
+package com.tasktop.servlet.cors;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The addresses of proxies trusted to report the host that a client asked for, given as IPv4 or IPv6 addresses or
+ * CIDR ranges such as {@code 10.0.0.0/8} or {@code fd00::/8}. The ranges are compiled into a binary trie over the 128
+ * bits of IPv6 addresses, with IPv4 addresses mapped into {@code ::ffff:0:0/96}, and flattened into arrays. Looking up
+ * an address parses it in place and walks at most 128 nodes, however many ranges are given, without allocating.
+ */
+class TrustedProxies {
+
+	private static final int ROOT = 0;
+	/** The root is never a child, so a child index of zero stands for none. */
+	private static final int NO_NODE = 0;
+
+	private static final int MATCH = 1;
+	private static final int NO_MATCH = 0;
+	private static final int INVALID = -1;
+
+	private static final int ADDRESS_BITS = 128;
+	private static final int IPV4_BITS = 32;
+	private static final long IPV4_MAPPED_PREFIX = 0xffffL << 32;
+
+	/** The children of node {@code n} are {@code children[2 * n]} for a zero bit and {@code children[2 * n + 1]}. */
+	private int[] children;
+	private boolean[] terminal;
+	private int nodeCount;
+	private final boolean empty;
+
+	TrustedProxies(Collection<String> ranges) {
+		children = new int[64];
+		terminal = new boolean[32];
+		nodeCount = 1;
+		for (String range : ranges) {
+			addRange(range);
+		}
+		children = Arrays.copyOf(children, nodeCount * 2);
+		terminal = Arrays.copyOf(terminal, nodeCount);
+		empty = ranges.isEmpty();
+	}
+
+	/**
+	 * @param address
+	 *            a literal IPv4 or IPv6 address, or {@code null}
+	 */
+	boolean contains(String address) {
+		return address != null && contains(address, 0, address.length());
+	}
+
+	/**
+	 * @return whether the literal address spanning {@code start} to {@code end} of {@code value} is trusted; anything
+	 *         that is not an address, such as a host name or an IPv6 address with a zone, is not
+	 */
+	boolean contains(String value, int start, int end) {
+		return !empty && lookup(value, start, end) == MATCH;
+	}
+
+	private int lookup(String value, int start, int end) {
+		if (indexOf(value, ':', start, end) < 0) {
+			long ipv4 = parseIPv4(value, start, end);
+			return ipv4 < 0 ? INVALID : walk(0L, IPV4_MAPPED_PREFIX | ipv4);
+		}
+		// find where a "::" leaves out groups of zeros, and how many groups follow it
+		int compression = indexOf(value, ':', start, end);
+		while (compression >= 0 && (compression + 1 == end || value.charAt(compression + 1) != ':')) {
+			compression = indexOf(value, ':', compression + 1, end);
+		}
+		int groupsAfterCompression = 0;
+		if (compression >= 0 && compression + 2 < end) {
+			groupsAfterCompression = 1;
+			for (int i = compression + 2; i < end; ++i) {
+				char c = value.charAt(i);
+				if (c == ':' || (c == '.' && indexOf(value, '.', start, i) < 0)) {
+					++groupsAfterCompression;// an IPv4 address in the last 32 bits counts as two groups
+				}
+			}
+		}
+
+		long high = 0L;
+		long low = 0L;
+		int group = 0;
+		int groupsBeforeCompression = -1;
+		boolean separated = true;
+		int i = start;
+		while (i < end) {
+			if (i == compression) {
+				groupsBeforeCompression = group;
+				group = 8 - groupsAfterCompression;
+				separated = true;
+				i += 2;
+				continue;
+			}
+			if (!separated) {
+				if (value.charAt(i) != ':' || ++i == end) {
+					return INVALID;// groups are separated by a colon, which must be followed by another group
+				}
+			}
+			int groupEnd = i;
+			int groupValue = 0;
+			while (groupEnd < end && groupEnd - i < 4 && hexDigit(value.charAt(groupEnd)) >= 0) {
+				groupValue = (groupValue << 4) | hexDigit(value.charAt(groupEnd));
+				++groupEnd;
+			}
+			if (groupEnd < end && value.charAt(groupEnd) == '.') {
+				long ipv4 = parseIPv4(value, i, end);
+				if (ipv4 < 0 || group != 6) {
+					return INVALID;
+				}
+				low |= ipv4;
+				group = 8;
+				break;
+			}
+			if (groupEnd == i || group >= 8) {
+				return INVALID;
+			}
+			if (group < 4) {
+				high |= (long) groupValue << (16 * (3 - group));
+			} else {
+				low |= (long) groupValue << (16 * (7 - group));
+			}
+			++group;
+			separated = false;
+			i = groupEnd;
+		}
+		if (group != 8 || (groupsBeforeCompression >= 0 && groupsBeforeCompression + groupsAfterCompression >= 8)) {
+			return INVALID;
+		}
+		return walk(high, low);
+	}
+
+	private int walk(long high, long low) {
+		int node = ROOT;
+		for (int bit = 0; bit < ADDRESS_BITS; ++bit) {
+			if (terminal[node]) {
+				return MATCH;
+			}
+			node = children[2 * node + bit(high, low, bit)];
+			if (node == NO_NODE) {
+				return NO_MATCH;
+			}
+		}
+		return terminal[node] ? MATCH : NO_MATCH;
+	}
+
+	private void addRange(String range) {
+		int slash = range.indexOf('/');
+		String address = slash < 0 ? range : range.substring(0, slash);
+		if (lookup(address, 0, address.length()) == INVALID) {
+			throw new IllegalArgumentException(
+					String.format("Invalid trusted proxy \"%s\": expected an IP address or CIDR range", range));
+		}
+		byte[] bytes = toBytes(address);
+		int addressBits = address.indexOf(':') < 0 ? IPV4_BITS : ADDRESS_BITS;
+		int prefixLength = addressBits;
+		if (slash >= 0) {
+			try {
+				prefixLength = Integer.parseInt(range.substring(slash + 1));
+			} catch (NumberFormatException e) {
+				prefixLength = -1;
+			}
+			if (prefixLength < 0 || prefixLength > addressBits) {
+				throw new IllegalArgumentException(String.format(
+						"Invalid trusted proxy \"%s\": prefix length must be from 0 to %s", range, addressBits));
+			}
+		}
+		add(bytes, ADDRESS_BITS - addressBits + prefixLength);
+	}
+
+	private void add(byte[] address, int prefixLength) {
+		int node = ROOT;
+		for (int bit = 0; bit < prefixLength; ++bit) {
+			if (terminal[node]) {
+				return;// a shorter range already contains this one
+			}
+			int index = 2 * node + ((address[bit >>> 3] >>> (7 - (bit & 7))) & 1);
+			if (children[index] == NO_NODE) {
+				int child = addNode();// may grow the arrays
+				children[index] = child;
+			}
+			node = children[index];
+		}
+		terminal[node] = true;
+	}
+
+	private int addNode() {
+		if (nodeCount == terminal.length) {
+			terminal = Arrays.copyOf(terminal, nodeCount * 2);
+			children = Arrays.copyOf(children, nodeCount * 4);
+		}
+		return nodeCount++;
+	}
+
+	/**
+	 * Converts an address already known to be a literal, so that no name is looked up.
+	 */
+	private static byte[] toBytes(String address) {
+		byte[] bytes;
+		try {
+			bytes = InetAddress.getByName(address).getAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);
+		}
+		if (bytes.length == 16) {
+			return bytes;
+		}
+		byte[] mapped = new byte[16];
+		mapped[10] = (byte) 0xff;
+		mapped[11] = (byte) 0xff;
+		System.arraycopy(bytes, 0, mapped, 12, 4);
+		return mapped;
+	}
+
+	private static int bit(long high, long low, int bit) {
+		return (int) (bit < 64 ? high >>> (63 - bit) : low >>> (127 - bit)) & 1;
+	}
+
+	/**
+	 * @return the dotted-quad IPv4 address spanning {@code start} to {@code end} as an unsigned 32-bit value, or
+	 *         {@code -1} if it is not one
+	 */
+	private static long parseIPv4(String value, int start, int end) {
+		long address = 0L;
+		int octets = 0;
+		int i = start;
+		while (octets < 4) {
+			int octetEnd = i;
+			int octet = 0;
+			while (octetEnd < end && octetEnd - i < 3 && value.charAt(octetEnd) >= '0' && value.charAt(octetEnd) <= '9') {
+				octet = octet * 10 + value.charAt(octetEnd) - '0';
+				++octetEnd;
+			}
+			if (octetEnd == i || octet > 255) {
+				return -1L;
+			}
+			address = (address << 8) | octet;
+			++octets;
+			i = octetEnd;
+			if (octets < 4) {
+				if (i == end || value.charAt(i) != '.') {
+					return -1L;
+				}
+				++i;
+			}
+		}
+		return i == end ? address : -1L;
+	}
+
+	private static int hexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		char lower = UriHostScanner.toLowerCase(c);
+		return lower >= 'a' && lower <= 'f' ? lower - 'a' + 10 : -1;
+	}
+
+	private static int indexOf(String value, char c, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (value.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,537 @@
+package com.tasktop.servlet.cors;
+
+/**
+ * Locates the host of an Origin or Referer header value in place, without the substrings and exceptions of
+ * {@link java.net.URI}. The scanner follows the RFC 2396 grammar as implemented by {@code java.net.URI}, so a value is
+ * found to have a host exactly when {@code URI.create(value).getHost()} would return one. Values that {@code URI} would
+ * reject as malformed have no host.
+ */
+class UriHostScanner {
+
+	static final long NO_HOST = -1L;
+
+	private static final int NOT_FOUND = -1;
+	private static final int FAILED = -2;
+
+	private static final long L_DIGIT = lowMask('0', '9');
+	private static final long H_DIGIT = 0L;
+	private static final long L_ALPHA = 0L;
+	private static final long H_ALPHA = highMask('A', 'Z') | highMask('a', 'z');
+	private static final long L_ALPHANUM = L_DIGIT | L_ALPHA;
+	private static final long H_ALPHANUM = H_DIGIT | H_ALPHA;
+	private static final long L_HEX = L_DIGIT;
+	private static final long H_HEX = highMask('A', 'F') | highMask('a', 'f');
+	private static final long L_MARK = lowMask("-_.!~*'()");
+	private static final long H_MARK = highMask("-_.!~*'()");
+	private static final long L_UNRESERVED = L_ALPHANUM | L_MARK;
+	private static final long H_UNRESERVED = H_ALPHANUM | H_MARK;
+	private static final long L_RESERVED = lowMask(";/?:@&=+$,[]");
+	private static final long H_RESERVED = highMask(";/?:@&=+$,[]");
+	// not a character: marks the classes that also accept escape sequences and non-ASCII "other" characters
+	private static final long L_ESCAPED = 1L;
+	private static final long H_ESCAPED = 0L;
+	private static final long L_URIC = L_RESERVED | L_UNRESERVED | L_ESCAPED;
+	private static final long H_URIC = H_RESERVED | H_UNRESERVED | H_ESCAPED;
+	private static final long L_PCHAR = L_UNRESERVED | L_ESCAPED | lowMask(":@&=+$,");
+	private static final long H_PCHAR = H_UNRESERVED | H_ESCAPED | highMask(":@&=+$,");
+	private static final long L_PATH = L_PCHAR | lowMask(";/");
+	private static final long H_PATH = H_PCHAR | highMask(";/");
+	private static final long L_DASH = lowMask("-");
+	private static final long H_DASH = highMask("-");
+	private static final long L_DOT = lowMask(".");
+	private static final long H_DOT = highMask(".");
+	private static final long L_USERINFO = L_UNRESERVED | L_ESCAPED | lowMask(";:&=+$,");
+	private static final long H_USERINFO = H_UNRESERVED | H_ESCAPED | highMask(";:&=+$,");
+	private static final long L_SERVER = L_USERINFO | L_ALPHANUM | L_DASH | lowMask(".:@[]");
+	private static final long H_SERVER = H_USERINFO | H_ALPHANUM | H_DASH | highMask(".:@[]");
+	private static final long L_SERVER_PERCENT = L_SERVER | lowMask("%");
+	private static final long H_SERVER_PERCENT = H_SERVER | highMask("%");
+	private static final long L_SCHEME = L_ALPHA | L_DIGIT | lowMask("+-.");
+	private static final long H_SCHEME = H_ALPHA | H_DIGIT | highMask("+-.");
+
+	private UriHostScanner() {
+		// not instantiable
+	}
+
+	/**
+	 * @return the span of the host within {@code uri}, to be unpacked with {@link #hostStart(long)} and
+	 *         {@link #hostEnd(long)}, or {@link #NO_HOST}
+	 */
+	static long findHost(String uri) {
+		int n = uri.length();
+		int p = findSchemeDelimiter(uri, n);
+		int hierarchicalStart = 0;
+		if (p != NOT_FOUND) {
+			if (p == 0 || !match(uri.charAt(0), L_ALPHA, H_ALPHA) || scan(uri, 1, p, L_SCHEME, H_SCHEME) != p) {
+				return NO_HOST;
+			}
+			hierarchicalStart = p + 1;
+		}
+		if (!at(uri, hierarchicalStart, n, '/') || !at(uri, hierarchicalStart + 1, n, '/')) {
+			return NO_HOST;// opaque or without authority
+		}
+		int authorityStart = hierarchicalStart + 2;
+		int authorityEnd = scanUntil(uri, authorityStart, n, "/?#");
+		if (authorityEnd == authorityStart) {
+			return NO_HOST;
+		}
+		long host = parseAuthority(uri, authorityStart, authorityEnd);
+		if (host == NO_HOST || !isValidRemainder(uri, authorityEnd, n)) {
+			return NO_HOST;
+		}
+		return host;
+	}
+
+	static int hostStart(long host) {
+		return (int) (host >>> 32);
+	}
+
+	static int hostEnd(long host) {
+		return (int) host;
+	}
+
+	/**
+	 * Allocates the host as a string, for diagnostics and tests; the request path compares spans in place.
+	 *
+	 * @return the host, or {@code null} if there is none
+	 */
+	static String extractHost(String uri) {
+		long host = findHost(uri);
+		return host == NO_HOST ? null : uri.substring(hostStart(host), hostEnd(host));
+	}
+
+	/**
+	 * Compares the host of {@code uri} with the host portion of a Host header value, that is the value without its
+	 * port, ignoring ASCII case.
+	 */
+	static boolean isSameHost(String uri, String hostHeader) {
+		return isSameHost(uri, findHost(uri), hostHeader);
+	}
+
+	/**
+	 * @param host
+	 *            the span of the host within {@code uri} as returned by {@link #findHost(String)}
+	 */
+	static boolean isSameHost(String uri, long host, String hostHeader) {
+		if (host == NO_HOST) {
+			return false;
+		}
+		int start = hostStart(host);
+		int length = hostEnd(host) - start;
+		return length == hostHeaderHostLength(hostHeader) && regionMatchesIgnoreCase(hostHeader, 0, uri, start, length);
+	}
+
+	/**
+	 * Compares regions of two strings ignoring ASCII case only, as host names are compared; unlike
+	 * {@link String#regionMatches(boolean, int, String, int, int)} it does not equate non-ASCII characters with ASCII
+	 * letters, such as the Kelvin sign with {@code k}.
+	 */
+	static boolean regionMatchesIgnoreCase(String value, int offset, String other, int otherOffset, int length) {
+		if (offset + length > value.length() || otherOffset + length > other.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; ++i) {
+			char c = value.charAt(offset + i);
+			char d = other.charAt(otherOffset + i);
+			if (c != d && toLowerCase(c) != toLowerCase(d)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static char toLowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	static int hostHeaderHostLength(String hostHeader) {
+		if (hostHeader.startsWith("[")) {
+			int closingBracket = hostHeader.indexOf(']');
+			if (closingBracket > 0) {
+				return closingBracket + 1;
+			}
+		}
+		int colon = hostHeader.indexOf(':');
+		return colon < 0 ? hostHeader.length() : colon;
+	}
+
+	private static int findSchemeDelimiter(String uri, int n) {
+		for (int i = 0; i < n; ++i) {
+			char c = uri.charAt(i);
+			if (c == ':') {
+				return i;
+			}
+			if (c == '/' || c == '?' || c == '#') {
+				break;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	private static boolean isValidRemainder(String uri, int start, int n) {
+		int p = start;
+		int q = scanUntil(uri, p, n, "?#");
+		if (scan(uri, p, q, L_PATH, H_PATH) != q) {
+			return false;
+		}
+		p = q;
+		if (at(uri, p, n, '?')) {
+			++p;
+			q = scanUntil(uri, p, n, "#");
+			if (scan(uri, p, q, L_URIC, H_URIC) != q) {
+				return false;
+			}
+			p = q;
+		}
+		if (at(uri, p, n, '#')) {
+			return scan(uri, p + 1, n, L_URIC, H_URIC) == n;
+		}
+		return p == n;
+	}
+
+	private static long parseAuthority(String uri, int start, int n) {
+		int serverCharsEnd = scanUntil(uri, start, n, "]") > start
+				? scan(uri, start, n, L_SERVER_PERCENT, H_SERVER_PERCENT)
+				: scan(uri, start, n, L_SERVER, H_SERVER);
+		if (serverCharsEnd != n) {
+			return NO_HOST;// a registry-based authority has no host
+		}
+		return parseServer(uri, start, n);
+	}
+
+	private static long parseServer(String uri, int start, int n) {
+		int p = start;
+		int q = scanUntil(uri, p, n, "@");
+		if (at(uri, q, n, '@')) {
+			if (scan(uri, p, q, L_USERINFO, H_USERINFO) != q) {
+				return NO_HOST;
+			}
+			p = q + 1;
+		}
+		int hostStart;
+		int hostEnd;
+		if (at(uri, p, n, '[')) {
+			++p;
+			q = scanUntil(uri, p, n, "]");
+			if (q <= p || !at(uri, q, n, ']')) {
+				return NO_HOST;
+			}
+			int r = scanUntil(uri, p, q, "%");
+			if (r > p) {
+				if (!isIPv6Reference(uri, p, r) || r + 1 == q
+						|| scan(uri, r + 1, q, L_ALPHANUM, H_ALPHANUM) < q) {
+					return NO_HOST;
+				}
+			} else if (!isIPv6Reference(uri, p, q)) {
+				return NO_HOST;
+			}
+			hostStart = p - 1;
+			hostEnd = q + 1;
+		} else {
+			hostStart = p;
+			hostEnd = parseIPv4Address(uri, p, n);
+			if (hostEnd <= p) {
+				hostEnd = parseHostname(uri, p, n);
+				if (hostEnd == FAILED) {
+					return NO_HOST;
+				}
+			}
+		}
+		p = hostEnd;
+		if (at(uri, p, n, ':')) {
+			++p;
+			if (p < n && !isValidPort(uri, p, n)) {
+				return NO_HOST;
+			}
+			p = n;
+		}
+		if (p < n) {
+			return NO_HOST;
+		}
+		return ((long) hostStart << 32) | hostEnd;
+	}
+
+	private static boolean isValidPort(String uri, int start, int end) {
+		if (scan(uri, start, end, L_DIGIT, H_DIGIT) != end) {
+			return false;
+		}
+		long port = 0;
+		for (int i = start; i < end; ++i) {
+			port = port * 10 + (uri.charAt(i) - '0');
+			if (port > Integer.MAX_VALUE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int parseHostname(String uri, int start, int n) {
+		int p = start;
+		int lastLabel = NOT_FOUND;
+		do {
+			int q = scan(uri, p, n, L_ALPHANUM, H_ALPHANUM);
+			if (q <= p) {
+				break;
+			}
+			lastLabel = p;
+			p = q;
+			q = scan(uri, p, n, L_ALPHANUM | L_DASH, H_ALPHANUM | H_DASH);
+			if (q > p) {
+				if (uri.charAt(q - 1) == '-') {
+					return FAILED;
+				}
+				p = q;
+			}
+			if (!at(uri, p, n, '.')) {
+				break;
+			}
+			++p;
+		} while (p < n);
+		if (p < n && !at(uri, p, n, ':')) {
+			return FAILED;
+		}
+		if (lastLabel == NOT_FOUND) {
+			return FAILED;
+		}
+		if (lastLabel > start && !match(uri.charAt(lastLabel), L_ALPHA, H_ALPHA)) {
+			return FAILED;// the top label of a qualified name starts with a letter
+		}
+		return p;
+	}
+
+	private static int parseIPv4Address(String uri, int start, int n) {
+		int p = scanIPv4Address(uri, start, n, false);
+		if (p > start && p < n && uri.charAt(p) != ':') {
+			return NOT_FOUND;
+		}
+		return p;
+	}
+
+	private static int scanIPv4Address(String uri, int start, int n, boolean strict) {
+		int m = scan(uri, start, n, L_DIGIT | L_DOT, H_DIGIT | H_DOT);
+		if (m <= start || (strict && m != n)) {
+			return NOT_FOUND;
+		}
+		int p = start;
+		for (int octet = 0; octet < 4; ++octet) {
+			if (octet > 0) {
+				if (!at(uri, p, m, '.')) {
+					return NOT_FOUND;
+				}
+				++p;
+			}
+			int q = scanByte(uri, p, m);
+			if (q <= p) {
+				return NOT_FOUND;
+			}
+			p = q;
+		}
+		return p < m ? NOT_FOUND : p;
+	}
+
+	private static int scanByte(String uri, int start, int n) {
+		int q = scan(uri, start, n, L_DIGIT, H_DIGIT);
+		int value = 0;
+		for (int i = start; i < q; ++i) {
+			value = value * 10 + (uri.charAt(i) - '0');
+			if (value > 255) {
+				return start;
+			}
+		}
+		return q;
+	}
+
+	private static boolean isIPv6Reference(String uri, int start, int n) {
+		int p = start;
+		boolean compressedZeros = false;
+		int q = scanHexSeq(uri, p, n);
+		if (q == FAILED) {
+			return false;
+		}
+		if (q > p) {
+			p = q;
+			if (at(uri, p, n, "::")) {
+				compressedZeros = true;
+				p = scanHexPost(uri, p + 2, n);
+			} else if (at(uri, p, n, ':')) {
+				p = takeIPv4Address(uri, p + 1, n);
+			}
+		} else if (at(uri, p, n, "::")) {
+			compressedZeros = true;
+			p = scanHexPost(uri, p + 2, n);
+		}
+		if (p == FAILED || p < n) {
+			return false;
+		}
+		int byteCount = countIPv6Bytes(uri, start, n);
+		if (byteCount > 16) {
+			return false;
+		}
+		return compressedZeros ? byteCount < 16 : byteCount == 16;
+	}
+
+	private static int scanHexPost(String uri, int start, int n) {
+		if (start == n) {
+			return start;
+		}
+		int q = scanHexSeq(uri, start, n);
+		if (q == FAILED) {
+			return FAILED;
+		}
+		if (q > start) {
+			if (at(uri, q, n, ':')) {
+				return takeIPv4Address(uri, q + 1, n);
+			}
+			return q;
+		}
+		return takeIPv4Address(uri, start, n);
+	}
+
+	private static int scanHexSeq(String uri, int start, int n) {
+		int q = scan(uri, start, n, L_HEX, H_HEX);
+		if (q <= start || at(uri, q, n, '.')) {
+			return NOT_FOUND;
+		}
+		if (q > start + 4) {
+			return FAILED;
+		}
+		int p = q;
+		while (p < n) {
+			if (!at(uri, p, n, ':') || at(uri, p + 1, n, ':')) {
+				break;
+			}
+			++p;
+			q = scan(uri, p, n, L_HEX, H_HEX);
+			if (q <= p) {
+				return FAILED;
+			}
+			if (at(uri, q, n, '.')) {
+				--p;// the colon precedes an IPv4 address
+				break;
+			}
+			if (q > p + 4) {
+				return FAILED;
+			}
+			p = q;
+		}
+		return p;
+	}
+
+	private static int takeIPv4Address(String uri, int start, int n) {
+		int p = scanIPv4Address(uri, start, n, true);
+		return p <= start ? FAILED : p;
+	}
+
+	/**
+	 * Counts the bytes of a syntactically valid IPv6 reference: two for each group of hex digits and four for a
+	 * trailing IPv4 address.
+	 */
+	private static int countIPv6Bytes(String uri, int start, int n) {
+		int hexEnd = n;
+		int byteCount = 0;
+		if (uri.lastIndexOf('.', n - 1) >= start) {
+			hexEnd = uri.lastIndexOf(':', n - 1) + 1;
+			byteCount += 4;
+		}
+		boolean inGroup = false;
+		for (int i = start; i < hexEnd; ++i) {
+			boolean hex = uri.charAt(i) != ':';
+			if (hex && !inGroup) {
+				byteCount += 2;
+			}
+			inGroup = hex;
+		}
+		return byteCount;
+	}
+
+	private static boolean at(String uri, int p, int n, char c) {
+		return p < n && uri.charAt(p) == c;
+	}
+
+	private static boolean at(String uri, int p, int n, String s) {
+		return s.length() <= n - p && uri.startsWith(s, p);
+	}
+
+	private static int scanUntil(String uri, int start, int n, String stop) {
+		int p = start;
+		while (p < n && stop.indexOf(uri.charAt(p)) < 0) {
+			++p;
+		}
+		return p;
+	}
+
+	/**
+	 * @return the end of the run of characters in the given class starting at {@code start}, or {@link #FAILED} for a
+	 *         malformed escape sequence
+	 */
+	private static int scan(String uri, int start, int n, long lowMask, long highMask) {
+		int p = start;
+		while (p < n) {
+			char c = uri.charAt(p);
+			if (match(c, lowMask, highMask)) {
+				++p;
+			} else if ((lowMask & L_ESCAPED) == 0) {
+				break;
+			} else if (c == '%') {
+				if (p + 3 > n || !match(uri.charAt(p + 1), L_HEX, H_HEX) || !match(uri.charAt(p + 2), L_HEX, H_HEX)) {
+					return FAILED;
+				}
+				p += 3;
+			} else if (c > 128 && !Character.isSpaceChar(c) && !Character.isISOControl(c)) {
+				++p;
+			} else {
+				break;
+			}
+		}
+		return p;
+	}
+
+	static boolean match(char c, long lowMask, long highMask) {
+		if (c == 0) {
+			return false;
+		}
+		if (c < 64) {
+			return ((1L << c) & lowMask) != 0;
+		}
+		if (c < 128) {
+			return ((1L << (c - 64)) & highMask) != 0;
+		}
+		return false;
+	}
+
+	static long lowMask(char first, char last) {
+		long mask = 0;
+		for (int c = Math.max(first, 0); c <= Math.min(last, 63); ++c) {
+			mask |= 1L << c;
+		}
+		return mask;
+	}
+
+	static long highMask(char first, char last) {
+		long mask = 0;
+		for (int c = Math.max(first, 64); c <= Math.min(last, 127); ++c) {
+			mask |= 1L << (c - 64);
+		}
+		return mask;
+	}
+
+	static long lowMask(String chars) {
+		long mask = 0;
+		for (char c : chars.toCharArray()) {
+			if (c < 64) {
+				mask |= 1L << c;
+			}
+		}
+		return mask;
+	}
+
+	static long highMask(String chars) {
+		long mask = 0;
+		for (char c : chars.toCharArray()) {
+			if (c >= 64 && c < 128) {
+				mask |= 1L << (c - 64);
+			}
+		}
+		return mask;
+	}
+}
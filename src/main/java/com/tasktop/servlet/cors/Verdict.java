@@ -0,0 +1,31 @@
+package com.tasktop.servlet.cors;
+
+/**
+ * The outcome of scrutinizing the headers of a request. Every value other than {@link #ALLOWED} is a reason for
+ * rejecting the request.
+ */
+public enum Verdict {
+	ALLOWED,
+	/** Origin, Referer, Host or X-Forwarded-Host was given more than once. */
+	DUPLICATE_HEADER,
+	/** Origin, Referer or the effective host header was blank. */
+	EMPTY_HEADER,
+	/** Origin or Referer was given without a Host header. */
+	MISSING_HOST,
+	/** The host of Origin or Referer is absent, malformed or differs from the effective host. */
+	HOST_MISMATCH,
+	/**
+	 * Sec-Fetch-Site declared a cross-site request with Origin or Referer, and the host trusts no other origins. Only
+	 * given when Fetch Metadata is enabled.
+	 */
+	CROSS_SITE,
+	/**
+	 * The pair of Origin and effective host caused too many rejections recently, so is blocked without further
+	 * scrutiny. Only given by {@link CorsHeaderScrutinyServletFilter} when rejection rate limiting is configured.
+	 */
+	RATE_LIMITED;
+
+	public boolean isAllowed() {
+		return this == ALLOWED;
+	}
+}
@@ -0,0 +1,96 @@
+package com.tasktop.servlet.cors;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Maps host names to the {@link HostPolicy} for requests addressed to them, in an open-addressed hash table probed
+ * with the host portion of a Host or X-Forwarded-Host header in place. Host names are kept in lower case ASCII,
+ * converted from Unicode if need be, and compared ignoring ASCII case.
+ */
+class VirtualHostPolicies {
+
+	static final VirtualHostPolicies NONE = new VirtualHostPolicies(Collections.emptyMap());
+
+	private final String[] hosts;
+	private final HostPolicy[] policies;
+	private final boolean empty;
+
+	VirtualHostPolicies(Map<String, HostPolicy> policiesByHost) {
+		int tableSize = Integer.highestOneBit(Math.max(1, policiesByHost.size()) * 2 - 1) << 1;
+		hosts = new String[tableSize];
+		policies = new HostPolicy[tableSize];
+		policiesByHost.forEach(this::add);
+		empty = policiesByHost.isEmpty();
+	}
+
+	boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * @param hostHeader
+	 *            the value of the Host or X-Forwarded-Host header, possibly with a port, or {@code null}
+	 * @return the policy for the host, or {@code null} if it has none of its own
+	 */
+	HostPolicy get(String hostHeader) {
+		if (empty || hostHeader == null) {
+			return null;
+		}
+		int length = UriHostScanner.hostHeaderHostLength(hostHeader);
+		int mask = hosts.length - 1;
+		for (int index = hash(hostHeader, length) & mask;; index = (index + 1) & mask) {
+			String host = hosts[index];
+			if (host == null) {
+				return null;
+			}
+			if (host.length() == length && UriHostScanner.regionMatchesIgnoreCase(host, 0, hostHeader, 0, length)) {
+				return policies[index];
+			}
+		}
+	}
+
+	private void add(String host, HostPolicy policy) {
+		String key = toAscii(checkValidHost(host));
+		int mask = hosts.length - 1;
+		int index = hash(key, key.length()) & mask;
+		while (hosts[index] != null) {
+			if (hosts[index].equals(key)) {
+				throw new IllegalArgumentException(String.format("Virtual host \"%s\" is given more than once", host));
+			}
+			index = (index + 1) & mask;
+		}
+		hosts[index] = key;
+		policies[index] = policy;
+	}
+
+	private static String checkValidHost(String host) {
+		if (host.isEmpty() || UriHostScanner.hostHeaderHostLength(host) != host.length()) {
+			throw new IllegalArgumentException(
+					String.format("Invalid virtual host \"%s\": expected a host name without port", host));
+		}
+		for (int i = 0; i < host.length(); ++i) {
+			char c = host.charAt(i);
+			if (c == '/' || c == '@' || c == '*' || Character.isWhitespace(c)) {
+				throw new IllegalArgumentException(String.format("Invalid virtual host \"%s\"", host));
+			}
+		}
+		return host;
+	}
+
+	private static String toAscii(String host) {
+		try {
+			return IdnHostNormalizer.toAscii(host);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("Invalid virtual host \"%s\": %s", host, e.getMessage()), e);
+		}
+	}
+
+	private static int hash(String value, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; ++i) {
+			hash = 31 * hash + UriHostScanner.toLowerCase(value.charAt(i));
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,121 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AuditRingBufferTest {
+
+	private final List<String> polled = new ArrayList<>();
+
+	@Test
+	public void roundsCapacityUpToPowerOfTwo() {
+		assertThat(new AuditRingBuffer(1).capacity()).isEqualTo(2);
+		assertThat(new AuditRingBuffer(5).capacity()).isEqualTo(8);
+		assertThat(new AuditRingBuffer(8).capacity()).isEqualTo(8);
+	}
+
+	@Test
+	public void pollsNothingWhenEmpty() {
+		AuditRingBuffer buffer = new AuditRingBuffer(4);
+		assertThat(buffer.poll(event -> polled.add(event.path))).isFalse();
+	}
+
+	@Test
+	public void pollsEventsInOrder() {
+		AuditRingBuffer buffer = new AuditRingBuffer(4);
+		for (int lap = 0; lap < 3; ++lap) {
+			offer(buffer, "/a");
+			offer(buffer, "/b");
+			offer(buffer, "/c");
+			while (buffer.poll(event -> polled.add(event.path))) {
+				// drain
+			}
+		}
+		assertThat(polled).containsExactly("/a", "/b", "/c", "/a", "/b", "/c", "/a", "/b", "/c");
+	}
+
+	@Test
+	public void refusesEventsWhenFull() {
+		AuditRingBuffer buffer = new AuditRingBuffer(2);
+		assertThat(offer(buffer, "/a")).isTrue();
+		assertThat(offer(buffer, "/b")).isTrue();
+		assertThat(offer(buffer, "/c")).isFalse();
+		assertThat(buffer.poll(event -> polled.add(event.path))).isTrue();
+		assertThat(offer(buffer, "/d")).isTrue();
+		while (buffer.poll(event -> polled.add(event.path))) {
+			// drain
+		}
+		assertThat(polled).containsExactly("/a", "/b", "/d");
+	}
+
+	@Test
+	public void clearsPolledSlot() {
+		AuditRingBuffer buffer = new AuditRingBuffer(2);
+		offer(buffer, "/a");
+		buffer.poll(event -> polled.add(event.path));
+		assertThat(buffer.get(0).path).isNull();
+	}
+
+	@Test
+	public void refusesEventsOnceClosedButDeliversEventsClaimedBefore() {
+		AuditRingBuffer buffer = new AuditRingBuffer(4);
+		offer(buffer, "/a");
+		long position = buffer.claim();
+		buffer.close();
+		assertThat(offer(buffer, "/b")).isFalse();
+		assertThat(buffer.poll(event -> polled.add(event.path))).isTrue();
+		assertThat(buffer.isDrained()).isFalse();// claimed but not yet published
+
+		buffer.get(position).path = "/c";
+		buffer.publish(position);
+		assertThat(buffer.poll(event -> polled.add(event.path))).isTrue();
+		assertThat(buffer.isDrained()).isTrue();
+		assertThat(polled).containsExactly("/a", "/c");
+	}
+
+	@Test
+	public void deliversEveryAcceptedEventFromConcurrentProducers() throws InterruptedException {
+		AuditRingBuffer buffer = new AuditRingBuffer(64);
+		int producers = 4;
+		int eventsPerProducer = 100_000;
+		AtomicLong accepted = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(producers);
+		for (int p = 0; p < producers; ++p) {
+			new Thread(() -> {
+				for (int i = 0; i < eventsPerProducer; ++i) {
+					long position = buffer.claim();
+					if (position != AuditRingBuffer.FULL) {
+						buffer.get(position).timestampMillis = 1;
+						buffer.publish(position);
+						accepted.incrementAndGet();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		long[] consumed = new long[1];
+		while (done.getCount() > 0 || buffer.poll(event -> consumed[0] += event.timestampMillis)) {
+			buffer.poll(event -> consumed[0] += event.timestampMillis);
+		}
+		while (buffer.poll(event -> consumed[0] += event.timestampMillis)) {
+			// drain
+		}
+		assertThat(consumed[0]).isEqualTo(accepted.get()).isGreaterThan(0);
+	}
+
+	private boolean offer(AuditRingBuffer buffer, String path) {
+		long position = buffer.claim();
+		if (position == AuditRingBuffer.FULL) {
+			return false;
+		}
+		buffer.get(position).path = path;
+		buffer.publish(position);
+		return true;
+	}
+}
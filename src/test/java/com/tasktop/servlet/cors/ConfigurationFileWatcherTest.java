@@ -0,0 +1,74 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConfigurationFileWatcherTest {
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final Semaphore changes = new Semaphore(0);
+
+	@Test
+	public void runsCallbackWhenFileIsModified() throws IOException, InterruptedException {
+		Path file = temporaryFolder.newFile("cors.properties").toPath();
+		try (ConfigurationFileWatcher watcher = new ConfigurationFileWatcher(file, 0, changes::release)) {
+			write(file, "a=b");
+			assertThat(changes.tryAcquire(10, TimeUnit.SECONDS)).isTrue();
+		}
+	}
+
+	@Test
+	public void runsCallbackWhenFileIsCreated() throws IOException, InterruptedException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("cors.properties");
+		try (ConfigurationFileWatcher watcher = new ConfigurationFileWatcher(file, 0, changes::release)) {
+			write(file, "a=b");
+			assertThat(changes.tryAcquire(10, TimeUnit.SECONDS)).isTrue();
+		}
+	}
+
+	@Test
+	public void ignoresOtherFilesInDirectory() throws IOException, InterruptedException {
+		Path file = temporaryFolder.newFile("cors.properties").toPath();
+		try (ConfigurationFileWatcher watcher = new ConfigurationFileWatcher(file, 0, changes::release)) {
+			write(temporaryFolder.getRoot().toPath().resolve("other.properties"), "a=b");
+			assertThat(changes.tryAcquire(500, TimeUnit.MILLISECONDS)).isFalse();
+		}
+	}
+
+	@Test
+	public void coalescesChangesWithinDelay() throws IOException, InterruptedException {
+		Path file = temporaryFolder.newFile("cors.properties").toPath();
+		try (ConfigurationFileWatcher watcher = new ConfigurationFileWatcher(file, 1_000, changes::release)) {
+			write(file, "a=b");
+			write(file, "a=c");
+			write(file, "a=d");
+			assertThat(changes.tryAcquire(15, TimeUnit.SECONDS)).isTrue();
+			assertThat(changes.tryAcquire(1_500, TimeUnit.MILLISECONDS)).isFalse();
+		}
+	}
+
+	@Test
+	public void stopsRunningCallbackWhenClosed() throws IOException, InterruptedException {
+		Path file = temporaryFolder.newFile("cors.properties").toPath();
+		new ConfigurationFileWatcher(file, 0, changes::release).close();
+		write(file, "a=b");
+		assertThat(changes.tryAcquire(500, TimeUnit.MILLISECONDS)).isFalse();
+	}
+
+	private void write(Path file, String line) throws IOException {
+		Files.write(file, Collections.singletonList(line), StandardCharsets.ISO_8859_1);
+	}
+}
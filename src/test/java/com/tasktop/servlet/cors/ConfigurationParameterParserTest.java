@@ -2,9 +2,14 @@ package com.tasktop.servlet.cors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 public class ConfigurationParameterParserTest {
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+	
 	@Test
 	public void parseExclusionParameterEmptyString() {
 		assertThat(ConfigurationParameterParser.parseExclusionPaths("")).isEmpty();
@@ -38,4 +43,124 @@ public class ConfigurationParameterParserTest {
 		assertThat(ConfigurationParameterParser.parseExclusionPaths("/some/path,other/different/path"))
 		.containsExactlyInAnyOrder("/some/path", "/other/different/path");
 	}
+	
+	@Test
+	public void parseExclusionParameterDropsDuplicateAndSubsumedPaths() {
+		assertThat(ConfigurationParameterParser.parseExclusionPaths("/api/one/ /b api/ /api/one/two /b /api/"))
+			.containsExactly("/api/", "/b");
+	}
+	
+	@Test
+	public void parseExclusionParameterComparesDecodedPaths() {
+		assertThat(ConfigurationParameterParser.parseExclusionPaths("/%C3 /%C3%A9")).containsExactly("/%C3%A9", "/%C3");
+		assertThat(ConfigurationParameterParser.parseExclusionPaths("/A /%41")).containsExactly("/%41");
+		assertThat(ConfigurationParameterParser.parseExclusionPaths("/api/x /%61pi/")).containsExactly("/%61pi/");
+	}
+	
+	@Test
+	public void parseExclusionParameterRejectsQuery() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		thrown.expectMessage("/api?x=1");
+		ConfigurationParameterParser.parseExclusionPaths("a-param", "/ok /api?x=1");
+	}
+	
+	@Test
+	public void parseExclusionParameterRejectsMalformedEscape() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("/api%2");
+		ConfigurationParameterParser.parseExclusionPaths("a-param", "/api%2");
+	}
+	
+	@Test
+	public void parseExclusionParameterAcceptsEscape() {
+		assertThat(ConfigurationParameterParser.parseExclusionPaths("a-param", "/a%20b")).containsExactly("/a%20b");
+	}
+	
+	@Test
+	public void parseExclusionPatternsKeepsOverlappingPatterns() {
+		assertThat(ConfigurationParameterParser.parseExclusionPatterns("a-param", "api/** /api/*/public /api/** /**"))
+			.containsExactly("/**", "/api/**", "/api/*/public");
+	}
+	
+	@Test
+	public void parseExclusionPatternsRejectsDoubleStarWithinSegment() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		thrown.expectMessage("/api/v**");
+		ConfigurationParameterParser.parseExclusionPatterns("a-param", "/api/v**");
+	}
+	
+	@Test
+	public void parseExclusionPatternsRejectsQuery() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("/api/*?x");
+		ConfigurationParameterParser.parseExclusionPatterns("a-param", "/api/*?x");
+	}
+	
+	@Test
+	public void parseListSplitsAtCommasAndWhitespace() {
+		assertThat(ConfigurationParameterParser.parseList(",, a\u0000b,\tc ,d\r\n")).containsExactly("a", "b", "c", "d");
+		assertThat(ConfigurationParameterParser.parseList(" , ")).isEmpty();
+	}
+	
+	@Test
+	public void parseNonNegativeInteger() {
+		assertThat(ConfigurationParameterParser.parseNonNegativeInteger("a-param", " 42 ")).isEqualTo(42);
+		assertThat(ConfigurationParameterParser.parseNonNegativeInteger("a-param", "0")).isEqualTo(0);
+	}
+	
+	@Test
+	public void parseNonNegativeIntegerRejectsNegativeValue() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		ConfigurationParameterParser.parseNonNegativeInteger("a-param", "-1");
+	}
+	
+	@Test
+	public void parseNonNegativeIntegerRejectsNonNumericValue() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		ConfigurationParameterParser.parseNonNegativeInteger("a-param", "lots");
+	}
+	
+	@Test
+	public void parseBoolean() {
+		assertThat(ConfigurationParameterParser.parseBoolean("a-param", "true")).isTrue();
+		assertThat(ConfigurationParameterParser.parseBoolean("a-param", " FALSE ")).isFalse();
+	}
+	
+	@Test
+	public void parseBooleanRejectsOtherValues() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		ConfigurationParameterParser.parseBoolean("a-param", "yes");
+	}
+	
+	@Test
+	public void parseFraction() {
+		assertThat(ConfigurationParameterParser.parseFraction("a-param", " 0.25 ")).isEqualTo(0.25);
+		assertThat(ConfigurationParameterParser.parseFraction("a-param", "1")).isEqualTo(1.0);
+		assertThat(ConfigurationParameterParser.parseFraction("a-param", "0")).isEqualTo(0.0);
+	}
+	
+	@Test
+	public void parseFractionRejectsValueAboveOne() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		ConfigurationParameterParser.parseFraction("a-param", "1.5");
+	}
+	
+	@Test
+	public void parseFractionRejectsNonNumericValue() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-param");
+		ConfigurationParameterParser.parseFraction("a-param", "NaN");
+	}
+	
+	@Test
+	public void parseTrustedOrigins() {
+		assertThat(ConfigurationParameterParser.parseTrustedOrigins(" a-host,*.example.com\n\tb-host "))
+			.containsExactly("a-host", "*.example.com", "b-host");
+	}
 }
@@ -0,0 +1,288 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class CorsHeaderScrutinyEngineTest {
+
+	private static final String[] HOSTS = { "a-host", "a-host:8080", "A-Host", "other-host", "trusted-host", "", " " };
+
+	private static final String[] URIS = { "http://a-host", "https://a-host:8443/path", "http://A-HOST",
+			"http://other-host", "http://trusted-host/path?query", "http://tenant-trusted", "null", "/a-path", "",
+			"http://a host" };
+
+	private static final String[] FETCH_SITES = { "same-origin", "same-site", "cross-site", "none", "Same-Origin", "" };
+
+	private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	@Test
+	public void allowsRequestWithoutOriginOrReferer() {
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(Collections.emptyMap());
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+	}
+
+	@Test
+	public void checksOriginAgainstHost() {
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(Collections.emptyMap());
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("a-host"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+		headers.put("Host", Arrays.asList("a-different-host"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.HOST_MISMATCH);
+		headers.put("Host", Arrays.asList("a-host", "a-host"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.DUPLICATE_HEADER);
+		headers.remove("Host");
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.MISSING_HOST);
+	}
+
+	@Test
+	public void comparesHostsIgnoringCaseAndUnicodeForm() {
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(Collections.emptyMap());
+		headers.put("Origin", Arrays.asList("https://A-Host"));
+		headers.put("Host", Arrays.asList("a-host"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+		headers.put("Origin", Arrays.asList("https://xn--bcher-kva.example"));
+		headers.put("X-Forwarded-Host", Arrays.asList("bücher.example"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+		headers.put("X-Forwarded-Host", Arrays.asList("büch.example"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.HOST_MISMATCH);
+	}
+
+	@Test
+	public void decidesFromFetchMetadataWhenEnabled() {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA, "true");
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(parameters);
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("a-proxy-rewritten-host"));
+		headers.put("Sec-Fetch-Site", Arrays.asList("same-origin"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+		headers.put("Sec-Fetch-Site", Arrays.asList("same-site"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.HOST_MISMATCH);
+		headers.put("Sec-Fetch-Site", Arrays.asList("cross-site"));
+		headers.put("Host", Arrays.asList("a-host"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.CROSS_SITE);
+		headers.remove("Origin");
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+	}
+
+	@Test
+	public void leavesCrossSiteToOriginWhenOtherOriginsAreTrusted() {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA, "true");
+		parameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS, "trusted-host");
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(parameters);
+		headers.put("Origin", Arrays.asList("http://trusted-host"));
+		headers.put("Host", Arrays.asList("a-host"));
+		headers.put("Sec-Fetch-Site", Arrays.asList("cross-site"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.ALLOWED);
+	}
+
+	@Test
+	public void checksHeadersThroughAccessorOutsideThePackage() {
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(Collections.emptyMap());
+		HeaderAccessor<Map<String, List<String>>> accessor = new HeaderAccessor<Map<String, List<String>>>() {
+
+			@Override
+			public String getFirstHeader(Map<String, List<String>> request, String name) {
+				List<String> values = request.get(name);
+				return values == null ? null : values.get(0);
+			}
+
+			@Override
+			public boolean isHeaderRepeated(Map<String, List<String>> request, String name) {
+				return request.get(name).size() > 1;
+			}
+		};
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("a-host"));
+		assertThat(engine.check(headers, accessor)).isEqualTo(Verdict.ALLOWED);
+		headers.put("Origin", Arrays.asList("http://a-host", "http://a-host"));
+		assertThat(engine.check(headers, accessor)).isEqualTo(Verdict.DUPLICATE_HEADER);
+		headers.put("Origin", Arrays.asList(""));
+		assertThat(engine.check(headers, accessor)).isEqualTo(Verdict.EMPTY_HEADER);
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("a-host", "a-host"));
+		assertThat(engine.check(headers, accessor)).isEqualTo(Verdict.DUPLICATE_HEADER);
+	}
+
+	@Test
+	public void believesForwardingHeadersOnlyFromTrustedProxies() {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_PROXIES, "10.0.0.0/8");
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(parameters);
+		Map<String, String> remoteAddress = new HashMap<>();
+		HeaderAccessor<Function<String, ? extends List<String>>> accessor = HeaderAccessor.VALUE_LISTS
+				.withRemoteAddress(request -> remoteAddress.get("address"));
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("an-internal-host"));
+		headers.put("X-Forwarded-Host", Arrays.asList("a-host"));
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.HOST_MISMATCH);
+		remoteAddress.put("address", "192.0.2.60");
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.HOST_MISMATCH);
+		remoteAddress.put("address", "10.0.0.1");
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.ALLOWED);
+
+		headers.put("Forwarded", Arrays.asList("for=192.0.2.60;host=a-host, for=10.0.0.2;host=an-internal-host"));
+		headers.put("X-Forwarded-Host", Arrays.asList("a-forged-host"));
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.ALLOWED);
+		headers.put("Forwarded", Arrays.asList("for=10.0.0.3;host=a-host, for=192.0.2.60;host=a-forged-host"));
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.HOST_MISMATCH);
+		headers.put("Forwarded", Arrays.asList("for=192.0.2.60;host=a-host", "for=10.0.0.2"));
+		assertThat(engine.check(headers::get, accessor)).isEqualTo(Verdict.DUPLICATE_HEADER);
+	}
+
+	@Test
+	public void ignoresFetchMetadataByDefault() {
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(Collections.emptyMap());
+		headers.put("Origin", Arrays.asList("http://a-host"));
+		headers.put("Host", Arrays.asList("a-different-host"));
+		headers.put("Sec-Fetch-Site", Arrays.asList("same-origin"));
+		assertThat(engine.check(headers::get, HeaderAccessor.VALUE_LISTS)).isEqualTo(Verdict.HOST_MISMATCH);
+	}
+
+	@Test
+	public void checksAsFunction() {
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS, "trusted-host");
+		CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(parameters);
+		headers.put("Referer", Arrays.asList("http://trusted-host/path"));
+		headers.put("Host", Arrays.asList("a-host"));
+		assertThat(engine.asFunction(HeaderAccessor.VALUE_LISTS).apply(headers::get)).isEqualTo(Verdict.ALLOWED);
+	}
+
+	@Test
+	public void givesSameVerdictsAsServletFilter() throws IOException, ServletException {
+		Random random = new Random(2016);
+		for (Map<String, String> parameters : configurations()) {
+			CorsHeaderScrutinyEngine engine = CorsHeaderScrutinyEngine.fromParameters(parameters);
+			CorsHeaderScrutinyServletFilter filter = new CorsHeaderScrutinyServletFilter();
+			filter.init(configOf(parameters));
+			try {
+				CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+				HttpServletRequest request = requestOf(headers);
+				for (int i = 0; i < 20_000; ++i) {
+					randomizeHeaders(random);
+					Verdict expected = engine.check(headers::get, HeaderAccessor.VALUE_LISTS);
+					assertThat(filterVerdict(filter, metrics, request)).describedAs("verdict on %s with %s", headers,
+							parameters).isEqualTo(expected);
+				}
+			} finally {
+				filter.destroy();
+			}
+		}
+	}
+
+	private List<Map<String, String>> configurations() {
+		List<Map<String, String>> configurations = new ArrayList<>();
+		configurations.add(Collections.emptyMap());
+		Map<String, String> trusted = new HashMap<>();
+		trusted.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS, "trusted-host");
+		trusted.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE, "16");
+		configurations.add(trusted);
+		Map<String, String> virtualHosts = new HashMap<>(trusted);
+		virtualHosts.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS, "a-host, other-host");
+		virtualHosts.put("virtual-host.a-host.trusted-origins", "tenant-trusted");
+		configurations.add(virtualHosts);
+		Map<String, String> fetchMetadata = new HashMap<>(virtualHosts);
+		fetchMetadata.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA, "true");
+		configurations.add(fetchMetadata);
+		Map<String, String> fetchMetadataOnly = new HashMap<>();
+		fetchMetadataOnly.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA, "true");
+		configurations.add(fetchMetadataOnly);
+		return configurations;
+	}
+
+	private void randomizeHeaders(Random random) {
+		headers.clear();
+		randomizeHeader(random, "Host", HOSTS);
+		randomizeHeader(random, "X-Forwarded-Host", HOSTS);
+		randomizeHeader(random, "Origin", URIS);
+		randomizeHeader(random, "Referer", URIS);
+		randomizeHeader(random, "Sec-Fetch-Site", FETCH_SITES);
+	}
+
+	private void randomizeHeader(Random random, String name, String[] values) {
+		int count = random.nextInt(6);
+		if (count >= 3) {
+			count = count == 5 ? 2 : 1;
+		}
+		if (count > 0) {
+			List<String> headerValues = new ArrayList<>();
+			for (int i = 0; i < count; ++i) {
+				headerValues.add(values[random.nextInt(values.length)]);
+			}
+			headers.put(name, headerValues);
+		}
+	}
+
+	private Verdict filterVerdict(CorsHeaderScrutinyServletFilter filter, CountingFilterMetrics metrics,
+			HttpServletRequest request) throws IOException, ServletException {
+		boolean[] passed = new boolean[1];
+		FilterChain chain = (chainRequest, chainResponse) -> passed[0] = true;
+		Map<Verdict, Long> rejectedBefore = rejectedCounts(metrics);
+		filter.doFilter(request, mock(HttpServletResponse.class), chain);
+		if (passed[0]) {
+			return Verdict.ALLOWED;
+		}
+		Map<Verdict, Long> rejectedAfter = rejectedCounts(metrics);
+		for (Verdict verdict : Verdict.values()) {
+			if (!rejectedAfter.get(verdict).equals(rejectedBefore.get(verdict))) {
+				return verdict;
+			}
+		}
+		throw new AssertionError("neither passed on nor rejected");
+	}
+
+	private Map<Verdict, Long> rejectedCounts(CountingFilterMetrics metrics) {
+		Map<Verdict, Long> counts = new HashMap<>();
+		for (Verdict verdict : Verdict.values()) {
+			counts.put(verdict, metrics.getRejectedRequestCount(verdict));
+		}
+		return counts;
+	}
+
+	private static HttpServletRequest requestOf(Map<String, List<String>> headers) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		doAnswer(invocation -> {
+			List<String> values = headers.get(invocation.getArguments()[0]);
+			return Collections.enumeration(values == null ? Collections.<String> emptyList() : values);
+		}).when(request).getHeaders(anyString());
+		doAnswer(invocation -> {
+			List<String> values = headers.get(invocation.getArguments()[0]);
+			return values == null ? null : values.get(0);
+		}).when(request).getHeader(anyString());
+		return request;
+	}
+
+	private static FilterConfig configOf(Map<String, String> parameters) {
+		Map<String, String> initParameters = new HashMap<>(parameters);
+		initParameters.put(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED, "true");
+		FilterConfig config = mock(FilterConfig.class);
+		doAnswer(invocation -> initParameters.get(invocation.getArguments()[0])).when(config)
+				.getInitParameter(any());
+		return config;
+	}
+}
@@ -0,0 +1,67 @@
+package com.tasktop.servlet.cors;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterRegistration;
+import javax.servlet.ServletContext;
+
+import org.junit.Test;
+
+public class CorsHeaderScrutinyServletContainerInitializerTest {
+
+	private final ServletContext servletContext = mock(ServletContext.class);
+
+	private final FilterRegistration.Dynamic registration = mock(FilterRegistration.Dynamic.class);
+
+	private final CorsHeaderScrutinyServletContainerInitializer initializer = new CorsHeaderScrutinyServletContainerInitializer();
+
+	@Test
+	public void registersNothingWithoutUrlPatterns() {
+		initializer.onStartup(Collections.emptySet(), servletContext);
+		verify(servletContext, never()).addFilter(anyString(), any(Class.class));
+	}
+
+	@Test
+	public void registersFilterWithPrefixedContextParameters() {
+		mockContextParameters("com.tasktop.servlet.cors.url-patterns", "/api/*, /upload/*",
+				"com.tasktop.servlet.cors.trusted-origins", "a-host", "unrelated", "value");
+		doReturn(registration).when(servletContext).addFilter("CorsHeaderScrutinyServletFilter",
+				CorsHeaderScrutinyServletFilter.class);
+		initializer.onStartup(Collections.emptySet(), servletContext);
+
+		Map<String, String> initParameters = new HashMap<>();
+		initParameters.put("trusted-origins", "a-host");
+		verify(registration).setAsyncSupported(true);
+		verify(registration).setInitParameters(initParameters);
+		verify(registration).addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), false, "/api/*",
+				"/upload/*");
+	}
+
+	@Test
+	public void logsFilterAlreadyRegistered() {
+		mockContextParameters("com.tasktop.servlet.cors.url-patterns", "/*");
+		initializer.onStartup(Collections.emptySet(), servletContext);
+		verify(servletContext).log("Filter CorsHeaderScrutinyServletFilter is already registered, not registering it again");
+	}
+
+	private void mockContextParameters(String... namesAndValues) {
+		String[] names = new String[namesAndValues.length / 2];
+		for (int i = 0; i < names.length; ++i) {
+			names[i] = namesAndValues[2 * i];
+			doReturn(namesAndValues[2 * i + 1]).when(servletContext).getInitParameter(names[i]);
+		}
+		doReturn(Collections.enumeration(Arrays.asList(names))).when(servletContext).getInitParameterNames();
+	}
+}
@@ -1,23 +1,36 @@
 package com.tasktop.servlet.cors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Optional;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -25,6 +38,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 public class CorsHeaderScrutinyServletFilterTest {
 
@@ -39,6 +53,9 @@ public class CorsHeaderScrutinyServletFilterTest {
 	@Rule
 	public final ExpectedException thrown = ExpectedException.none();
 
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	private final HttpServletResponse response = mock(HttpServletResponse.class);
 
 	private final HttpServletRequest request = mock(HttpServletRequest.class);
@@ -67,6 +84,661 @@ public class CorsHeaderScrutinyServletFilterTest {
 		assertThat(filter.getRequestExclusionMatcher()).isNotEmpty();
 	}
 
+	@Test
+	public void initWithoutHostVerdictCacheSize() throws ServletException {
+		filter.init(config);
+		assertThat(filter.getHostVerdictCache().isEnabled()).isFalse();
+	}
+	
+	@Test
+	public void initWithHostVerdictCacheSize() throws ServletException {
+		filter.init(configWithHostVerdictCacheSizeAs("64"));
+		assertThat(filter.getHostVerdictCache().isEnabled()).isTrue();
+		assertThat(filter.getHostVerdictCache().capacity()).isEqualTo(64);
+	}
+	
+	@Test
+	public void initWithInvalidHostVerdictCacheSize() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE);
+		filter.init(configWithHostVerdictCacheSizeAs("-5"));
+	}
+	
+	@Test
+	public void doFilterRejectsRepeatedRequestWithOriginWithDifferentHostUsingHostVerdictCache() throws IOException, ServletException {
+		filter.init(configWithHostVerdictCacheSizeAs("64"));
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		filter.doFilter(request, response, chain);
+		filter.doFilter(request, response, chain);
+		verify(response, times(2)).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		verifyNoMoreInteractions(chain);
+		assertThat(filter.getHostVerdictCache().getHitCount()).isEqualTo(1);
+		assertThat(filter.getHostVerdictCache().getMissCount()).isEqualTo(1);
+	}
+	
+	@Test
+	public void doFilterAcceptsRepeatedRequestWithMatchingOriginUsingHostVerdictCache() throws IOException, ServletException {
+		filter.init(configWithHostVerdictCacheSizeAs("64"));
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		filter.doFilter(request, response, chain);
+		filter.doFilter(request, response, chain);
+		verify(chain, times(2)).doFilter(request, response);
+		assertThat(filter.getHostVerdictCache().getHitCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void initWithoutMetrics() throws ServletException {
+		filter.init(config);
+		assertThat(filter.getMetrics()).isSameAs(FilterMetrics.DISABLED);
+	}
+	
+	@Test
+	public void initWithInvalidMetricsEnabled() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("maybe").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		filter.init(config);
+	}
+	
+	@Test
+	public void initWithConfigFileOverridingInitParameters() throws IOException, ServletException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=a-host");
+		configWithTrustedOriginsAs("another-host");
+		configWithConfigFileAs(configFile);
+		filter.init(configWithHostVerdictCacheSizeAs("64"));
+		try {
+			assertThat(filter.getTrustedOrigins().contains("a-host", 0, 6)).isTrue();
+			assertThat(filter.getTrustedOrigins().contains("another-host", 0, 12)).isFalse();
+			assertThat(filter.getHostVerdictCache().capacity()).isEqualTo(64);
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void initWithMissingConfigFile() throws IOException, ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage("Cannot read configuration file");
+		filter.init(configWithConfigFileAs(temporaryFolder.getRoot().toPath().resolve("missing.properties")));
+	}
+	
+	@Test
+	public void initWithInvalidConfigFile() throws IOException, ServletException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE + "=-1");
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE);
+		filter.init(configWithConfigFileAs(configFile));
+	}
+	
+	@Test
+	public void doFilterUsesReloadedConfigFile() throws IOException, ServletException, InterruptedException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=another-host");
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("100").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS);
+		filter.init(configWithConfigFileAs(configFile));
+		try {
+			mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+			mockHeader(HTTP_HEADER_HOST, "a-different-host");
+			verifyDoFilterRejectsRequest();
+			
+			ScrutinyPolicy initialPolicy = filter.getPolicy();
+			writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=a-host");
+			awaitPolicyChange(initialPolicy);
+			
+			filter.doFilter(request, response, chain);
+			verify(chain).doFilter(request, response);
+			assertThat(((CountingFilterMetrics) filter.getMetrics()).getPolicyReloadCount()).isGreaterThanOrEqualTo(1);
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void initReadsStartupParametersFromConfigFile() throws IOException, ServletException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		Path auditLogFile = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED + "=true",
+				CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT + "=1",
+				CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE + "=" + auditLogFile.toString().replace('\\', '/'));
+		doReturn("0").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		filter.init(configWithConfigFileAs(configFile));
+		try {
+			assertThat(filter.getMetrics()).isInstanceOf(CountingFilterMetrics.class);
+			assertThat(filter.getRejectionRateLimiter().isEnabled()).isTrue();
+			assertThat(auditLogFile).exists();
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void doFilterLogsStartupParameterChangedByReloadedConfigFile() throws IOException, ServletException, InterruptedException {
+		ServletContext servletContext = mock(ServletContext.class);
+		doReturn(servletContext).when(config).getServletContext();
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT + "=1");
+		doReturn("100").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS);
+		filter.init(configWithConfigFileAs(configFile));
+		try {
+			ScrutinyPolicy initialPolicy = filter.getPolicy();
+			writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT + "=2",
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=a-host");
+			awaitPolicyChange(initialPolicy);
+			verify(servletContext, timeout(10_000)).log(contains(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT));
+			verify(servletContext, never()).log(contains(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED));
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void doFilterLiftsRejectionRateLimitBlocksOnReloadedConfigFile() throws IOException, ServletException, InterruptedException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT + "=1");
+		doReturn("100").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS);
+		filter.init(configWithConfigFileAs(configFile));
+		try {
+			mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+			mockHeader(HTTP_HEADER_HOST, "a-different-host");
+			for (int i = 0; i < 3; ++i) {
+				filter.doFilter(request, response, chain);
+			}
+			assertThat(filter.getRejectionRateLimiter().isBlocked("http://a-host", "a-different-host")).isTrue();
+			
+			ScrutinyPolicy initialPolicy = filter.getPolicy();
+			writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT + "=1",
+					CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=a-host");
+			awaitPolicyChange(initialPolicy);
+			
+			verifyDoFilterAcceptsRequest();
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void doFilterKeepsPreviousConfigWhenReloadedConfigFileIsInvalid() throws IOException, ServletException, InterruptedException {
+		Path configFile = temporaryFolder.newFile("cors.properties").toPath();
+		writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=a-host");
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("100").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_CONFIG_FILE_RELOAD_DELAY_MILLIS);
+		filter.init(configWithConfigFileAs(configFile));
+		try {
+			ScrutinyPolicy initialPolicy = filter.getPolicy();
+			CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+			writeConfigFile(configFile, CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS + "=*");
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (metrics.getPolicyReloadFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(metrics.getPolicyReloadFailureCount()).isGreaterThanOrEqualTo(1);
+			assertThat(filter.getPolicy()).isSameAs(initialPolicy);
+		} finally {
+			filter.destroy();
+		}
+	}
+	
+	@Test
+	public void doFilterUsesPolicyOfVirtualHost() throws IOException, ServletException {
+		doReturn("a-host").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS);
+		doReturn("trusted-host").when(config).getInitParameter("virtual-host.a-host.trusted-origins");
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://trusted-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host:8080");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void doFilterUsesDefaultPolicyOfOtherHost() throws IOException, ServletException {
+		doReturn("a-host").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS);
+		doReturn("trusted-host").when(config).getInitParameter("virtual-host.a-host.trusted-origins");
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://trusted-host");
+		mockHeader(HTTP_HEADER_HOST, "another-host");
+		verifyDoFilterRejectsRequest();
+	}
+	
+	@Test
+	public void doFilterUsesPolicyOfForwardedVirtualHost() throws IOException, ServletException {
+		doReturn("a-host").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS);
+		doReturn("/excluded").when(config).getInitParameter("virtual-host.a-host.path-exclusion-prefix");
+		filter.init(config);
+		mockPath("/excluded/path");
+		mockHeader(HTTP_HEADER_ORIGIN, "http://another-host");
+		mockHeader(HTTP_HEADER_HOST, "internal-host");
+		mockHeader(HTTP_HEADER_X_FORWARDED_HOST, "a-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void doFilterWritesRejectedRequestToAuditLog() throws IOException, ServletException {
+		Path auditLogFile = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		doReturn(auditLogFile.toString()).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		filter.init(config);
+		mockPath("/path");
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		filter.doFilter(request, response, chain);
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		filter.doFilter(request, response, chain);
+		filter.destroy();
+		
+		assertThat(Files.readAllLines(auditLogFile, StandardCharsets.UTF_8)).hasSize(1)
+				.allMatch(line -> line.contains("reason=HOST_MISMATCH") && line.contains("host=\"a-different-host\"")
+						&& line.contains("origin=\"http://a-host\"") && line.contains("path=\"/context/path\""));
+	}
+	
+	@Test
+	public void doFilterPassesOnWouldBeRejectedRequestInReportOnlyMode() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY);
+		Path auditLogFile = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		doReturn(auditLogFile.toString()).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+		verify(response, never()).sendError(any(Integer.class), any());
+		CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+		assertThat(metrics.getRejectedRequestCount()).isZero();
+		assertThat(metrics.getReportedRequestCount(Verdict.HOST_MISMATCH)).isEqualTo(1);
+		assertThat(metrics.getReportedRequestCountByReason()).containsEntry(Verdict.HOST_MISMATCH.name(), 1L);
+		filter.destroy();
+		
+		assertThat(Files.readAllLines(auditLogFile, StandardCharsets.UTF_8)).hasSize(1)
+				.allMatch(line -> line.contains("reason=HOST_MISMATCH report-only"));
+	}
+	
+	@Test
+	public void doFilterSkipsUnsampledRequestInReportOnlyMode() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY);
+		doReturn("0").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY_SAMPLE_RATE);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+		verifyHeaderCheckSkipped();
+		CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+		assertThat(metrics.getNotSampledRequestCount()).isEqualTo(1);
+		assertThat(metrics.getReportedRequestCount()).isZero();
+	}
+	
+	@Test
+	public void initWithInvalidReportOnlySampleRate() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY_SAMPLE_RATE);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY);
+		doReturn("2").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REPORT_ONLY_SAMPLE_RATE);
+		filter.init(config);
+	}
+	
+	@Test
+	public void initWithInvalidAuditLogBufferSize() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_BUFFER_SIZE);
+		doReturn("audit.log").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		doReturn("0").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_BUFFER_SIZE);
+		filter.init(config);
+	}
+	
+	@Test
+	public void initWithInvalidPolicyOpensNoAuditLog() throws ServletException {
+		Path auditLogFile = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		doReturn(auditLogFile.toString()).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		assertThatThrownBy(() -> filter.init(configWithTrustedOriginsAs("*"))).isInstanceOf(ServletException.class)
+				.hasMessageContaining("Invalid trusted origin");
+		assertThat(auditLogFile).doesNotExist();
+		assertThat(countAuditLogWriterThreads()).isZero();
+	}
+	
+	@Test
+	public void initReleasesAuditLogAndMetricsMBeanWhenItFails() throws Exception {
+		Path auditLogFile = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		doReturn(auditLogFile.toString()).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_AUDIT_LOG_FILE);
+		String objectName = "com.tasktop.servlet.cors:type=CorsHeaderScrutinyServletFilter,name=failed";
+		doReturn(objectName).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME);
+		CorsHeaderScrutinyServletFilter registeredFilter = new CorsHeaderScrutinyServletFilter();
+		registeredFilter.init(config);
+		try {
+			assertThatThrownBy(() -> filter.init(config)).isInstanceOf(ServletException.class)
+					.hasMessageContaining("Cannot register metrics MBean");
+		} finally {
+			registeredFilter.destroy();
+		}
+		assertThat(countAuditLogWriterThreads()).isZero();
+		assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(objectName))).isFalse();
+	}
+	
+	@Test
+	public void doFilterAnswersAllowedPreflight() throws IOException, ServletException {
+		doReturn("GET POST PUT").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+		doReturn("120").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_MAX_AGE);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		filter.init(configWithTrustedOriginsAs("trusted-host"));
+		mockPreflight("http://trusted-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		filter.doFilter(request, response, chain);
+		verify(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+		verify(response).setHeader("Access-Control-Allow-Origin", "http://trusted-host");
+		verify(response).setHeader("Access-Control-Allow-Methods", "GET, POST, PUT");
+		verify(response).setHeader("Access-Control-Max-Age", "120");
+		verify(response).addHeader("Vary", "Origin");
+		verifyNoMoreInteractions(chain);
+		assertThat(((CountingFilterMetrics) filter.getMetrics()).getAnsweredPreflightCount()).isEqualTo(1);
+	}
+	
+	@Test
+	public void doFilterRejectsPreflightFromOtherHost() throws IOException, ServletException {
+		doReturn("GET").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+		filter.init(config);
+		mockPreflight("http://another-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterRejectsRequest();
+		verify(response, never()).setHeader(any(), any());
+	}
+	
+	@Test
+	public void doFilterPassesOnPreflightWithoutPreflightMethods() throws IOException, ServletException {
+		filter.init(config);
+		mockPreflight("http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterAcceptsRequest();
+		verify(response, never()).setHeader(any(), any());
+	}
+	
+	@Test
+	public void doFilterPassesOnPreflightToExcludedPath() throws IOException, ServletException {
+		doReturn("GET").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+		filter.init(configWithExlusionPathAs("/excluded"));
+		mockPath("/excluded/path");
+		mockPreflight("http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterAcceptsRequest();
+		verify(response, never()).setHeader(any(), any());
+	}
+	
+	@Test
+	public void doFilterPassesOnOptionsRequestThatIsNoPreflight() throws IOException, ServletException {
+		doReturn("GET").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+		filter.init(config);
+		doReturn("OPTIONS").when(request).getMethod();
+		verifyDoFilterAcceptsRequest();
+		verify(response, never()).setHeader(any(), any());
+	}
+	
+	@Test
+	public void initWithInvalidPreflightMethod() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage("Invalid preflight method");
+		doReturn("GET, P@ST").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_PREFLIGHT_ALLOWED_METHODS);
+		filter.init(config);
+	}
+	
+	@Test
+	public void doFilterClosesConnectionWhenRejectingRequestWithBody() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		doReturn(1024).when(request).getContentLength();
+		verifyDoFilterRejectsRequest();
+		verify(response).setHeader("Connection", "close");
+		verify(request, never()).getInputStream();
+		verify(request, never()).getReader();
+	}
+	
+	@Test
+	public void doFilterClosesConnectionWhenRejectingChunkedRequest() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		doReturn(-1).when(request).getContentLength();
+		doReturn("chunked").when(request).getHeader("Transfer-Encoding");
+		verifyDoFilterRejectsRequest();
+		verify(response).setHeader("Connection", "close");
+	}
+	
+	@Test
+	public void doFilterKeepsConnectionWhenRejectingRequestWithoutBody() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		doReturn(-1).when(request).getContentLength();
+		verifyDoFilterRejectsRequest();
+		verify(response, never()).setHeader("Connection", "close");
+	}
+	
+	@Test
+	public void doFilterPassesOnExemptMethodWithoutScrutiny() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("GET, HEAD").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS);
+		filter.init(config);
+		doReturn("GET").when(request).getMethod();
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+		verifyHeaderCheckSkipped();
+		verify(request, never()).getRequestURI();
+		assertThat(((CountingFilterMetrics) filter.getMetrics()).getExemptRequestCount()).isEqualTo(1);
+	}
+	
+	@Test
+	public void doFilterScrutinizesMethodThatIsNotExempt() throws IOException, ServletException {
+		doReturn("GET").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS);
+		filter.init(configWithExlusionPathAs("/excluded"));
+		doReturn("POST").when(request).getMethod();
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		mockPath("/path");
+		verifyDoFilterRejectsRequest();
+		
+		mockPath("/excluded/path");
+		filter.doFilter(request, response, chain);
+		verify(chain).doFilter(request, response);
+	}
+	
+	@Test
+	public void doFilterUsesExemptMethodsOfVirtualHost() throws IOException, ServletException {
+		doReturn("GET").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS);
+		doReturn("a-host").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_VIRTUAL_HOSTS);
+		doReturn("").when(config).getInitParameter("virtual-host.a-host.exempt-methods");
+		filter.init(config);
+		doReturn("GET").when(request).getMethod();
+		mockHeader(HTTP_HEADER_ORIGIN, "http://another-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterRejectsRequest();
+		
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void initWithInvalidExemptMethod() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage("Invalid exempt method");
+		doReturn("GET,\"POST\"").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_EXEMPT_METHODS);
+		filter.init(config);
+	}
+	
+	@Test
+	public void doFilterCountsRequestsByDecidingHeaders() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_FETCH_METADATA);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		mockHeader("Sec-Fetch-Site", "cross-site");
+		verifyDoFilterRejectsRequest();
+		mockHeader("Sec-Fetch-Site");
+		filter.doFilter(request, response, chain);
+		
+		CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+		assertThat(metrics.getFetchMetadataDecisionCount()).isEqualTo(1);
+		assertThat(metrics.getOriginAndRefererDecisionCount()).isEqualTo(1);
+		assertThat(metrics.getRejectedRequestCount(Verdict.CROSS_SITE)).isEqualTo(1);
+		assertThat(metrics.getRejectedRequestCount(Verdict.HOST_MISMATCH)).isEqualTo(1);
+	}
+	
+	@Test
+	public void doFilterBlocksOriginExceedingRejectionRateLimit() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("1").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		doReturn("2").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_BURST);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		for (int i = 0; i < 3; ++i) {
+			filter.doFilter(request, response, chain);
+		}
+		verify(response, times(3)).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		
+		filter.doFilter(request, response, chain);
+		verify(response, times(3)).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		verify(response).setStatus(HttpServletResponse.SC_FORBIDDEN);
+		verify(response).setContentLength(0);
+		verifyNoMoreInteractions(chain);
+		CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+		assertThat(metrics.getRejectedRequestCount(Verdict.HOST_MISMATCH)).isEqualTo(3);
+		assertThat(metrics.getRejectedRequestCount(Verdict.RATE_LIMITED)).isEqualTo(1);
+	}
+	
+	@Test
+	public void doFilterDoesNotBlockOriginForOtherHosts() throws IOException, ServletException {
+		doReturn("1").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		for (int i = 0; i < 3; ++i) {
+			filter.doFilter(request, response, chain);
+		}
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void doFilterDoesNotBlockOriginForRejectedReferer() throws IOException, ServletException {
+		doReturn("1").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		mockHeader(HTTP_HEADER_REFERER, "http://a-different-host/path");
+		for (int i = 0; i < 3; ++i) {
+			filter.doFilter(request, response, chain);
+		}
+		verify(response, times(3)).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		assertThat(filter.getRejectionRateLimiter().isBlocked("http://a-host", "a-host")).isFalse();
+	}
+	
+	@Test
+	public void doFilterDoesNotBlockOriginForRepeatedOrEmptyOrigin() throws IOException, ServletException {
+		doReturn("1").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host", "http://a-host");
+		for (int i = 0; i < 3; ++i) {
+			filter.doFilter(request, response, chain);
+		}
+		mockHeader(HTTP_HEADER_ORIGIN, "");
+		for (int i = 0; i < 3; ++i) {
+			filter.doFilter(request, response, chain);
+		}
+		verify(response, times(6)).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		assertThat(filter.getRejectionRateLimiter().isBlocked("http://a-host", "a-host")).isFalse();
+		assertThat(filter.getRejectionRateLimiter().isBlocked("", "a-host")).isFalse();
+		
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void initWithInvalidRejectionRateLimit() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		doReturn("-1").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RATE_LIMIT);
+		filter.init(config);
+	}
+	
+	@Test
+	public void doFilterCountsRequestsByOutcomeAndReason() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_ENABLED);
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_LATENCY_HISTOGRAM);
+		filter.init(configWithExlusionPathAs("/excluded"));
+		mockPath("/excluded/path");
+		filter.doFilter(request, response, chain);
+		mockPath("/path");
+		filter.doFilter(request, response, chain);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		filter.doFilter(request, response, chain);
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		filter.doFilter(request, response, chain);
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		filter.doFilter(request, response, chain);
+		
+		CountingFilterMetrics metrics = (CountingFilterMetrics) filter.getMetrics();
+		assertThat(metrics.getExcludedRequestCount()).isEqualTo(1);
+		assertThat(metrics.getAllowedRequestCount()).isEqualTo(2);
+		assertThat(metrics.getRejectedRequestCount()).isEqualTo(2);
+		assertThat(metrics.getRejectedRequestCount(Verdict.MISSING_HOST)).isEqualTo(1);
+		assertThat(metrics.getRejectedRequestCount(Verdict.HOST_MISMATCH)).isEqualTo(1);
+		assertThat(metrics.getRejectedRequestCountByReason()).containsEntry(Verdict.HOST_MISMATCH.name(), 1L)
+				.doesNotContainKey(Verdict.ALLOWED.name());
+		assertThat(metrics.getLatencySampleCount()).isEqualTo(5);
+	}
+	
+	@Test
+	public void initRegistersMetricsMBeanUntilDestroyed() throws Exception {
+		String objectName = "com.tasktop.servlet.cors:type=CorsHeaderScrutinyServletFilter,name=test";
+		doReturn(objectName).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_METRICS_JMX_OBJECT_NAME);
+		filter.init(config);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertThat(server.getAttribute(new ObjectName(objectName), "RejectedRequestCount")).isEqualTo(0L);
+		} finally {
+			filter.destroy();
+		}
+		assertThat(server.isRegistered(new ObjectName(objectName))).isFalse();
+	}
+
+	@Test
+	public void initWithInvalidTrustedOrigins() throws ServletException {
+		thrown.expect(ServletException.class);
+		thrown.expectMessage("http://a-host");
+		filter.init(configWithTrustedOriginsAs("http://a-host"));
+	}
+	
+	@Test
+	public void doFilterAcceptsRequestWithTrustedOrigin() throws IOException, ServletException {
+		filter.init(configWithTrustedOriginsAs("a-host, *.example.com"));
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void doFilterAcceptsRequestWithRefererFromTrustedWildcardOrigin() throws IOException, ServletException {
+		filter.init(configWithTrustedOriginsAs("a-host, *.example.com"));
+		mockHeader(HTTP_HEADER_REFERER, "https://app.example.com/some/path");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterAcceptsRequest();
+	}
+	
+	@Test
+	public void doFilterRejectsRequestWithUntrustedOrigin() throws IOException, ServletException {
+		filter.init(configWithTrustedOriginsAs("a-host, *.example.com"));
+		mockHeader(HTTP_HEADER_ORIGIN, "https://example.com");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		verifyDoFilterRejectsRequest();
+	}
+	
+	@Test
+	public void doFilterRejectsRequestWithTrustedOriginWithoutHost() throws IOException, ServletException {
+		filter.init(configWithTrustedOriginsAs("a-host"));
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		verifyDoFilterRejectsRequest();
+	}
+
 	@Test
 	public void destroy() {
 		filter.destroy();
@@ -114,6 +786,55 @@ public class CorsHeaderScrutinyServletFilterTest {
 		verifyDoFilterRejectsRequest();
 	}
 
+	@Test
+	public void doFilterIgnoresXForwardedHostFromUntrustedProxy() throws IOException, ServletException {
+		doReturn("10.0.0.0/8, fd00::/8").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_PROXIES);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		mockHeader(HTTP_HEADER_X_FORWARDED_HOST, "a-host");
+		doReturn("192.0.2.60").when(request).getRemoteAddr();
+		verifyDoFilterRejectsRequest();
+	}
+
+	@Test
+	public void doFilterAcceptsRequestWithOriginMatchingHostForwardedByTrustedProxies() throws IOException, ServletException {
+		doReturn("10.0.0.0/8, fd00::/8").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_PROXIES);
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		mockHeader("Forwarded", "for=192.0.2.60;host=a-host, for=\"[fd00::2]:443\";host=an-internal-host");
+		doReturn("10.0.0.1").when(request).getRemoteAddr();
+		verifyDoFilterAcceptsRequest();
+	}
+
+	@Test
+	public void doFilterWritesRejectionResponseDirectlyWhenConfigured() throws IOException, ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_DIRECT);
+		doReturn("{\"error\":\"forbidden\"}").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_BODY);
+		doReturn("application/json").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_CONTENT_TYPE);
+		ServletOutputStream outputStream = mock(ServletOutputStream.class);
+		doReturn(outputStream).when(response).getOutputStream();
+		filter.init(config);
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-different-host");
+		filter.doFilter(request, response, chain);
+		verify(response).setStatus(HttpServletResponse.SC_FORBIDDEN);
+		verify(response).setContentType("application/json");
+		verify(outputStream).write("{\"error\":\"forbidden\"}".getBytes(StandardCharsets.UTF_8));
+		verify(response, never()).sendError(any(Integer.class), any());
+		verifyNoMoreInteractions(chain);
+	}
+
+	@Test
+	public void initWithInvalidRejectionResponseContentType() throws ServletException {
+		doReturn("true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_DIRECT);
+		doReturn("text/plain\nX-Injected: true").when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_REJECTION_RESPONSE_CONTENT_TYPE);
+		thrown.expect(ServletException.class);
+		thrown.expectMessage("Invalid content type");
+		filter.init(config);
+	}
+
 	@Test
 	public void doFilterRejectsRequestWithOriginWithEmptyHost() throws IOException, ServletException {
 		mockHeader(HTTP_HEADER_ORIGIN, "http://");
@@ -121,6 +842,28 @@ public class CorsHeaderScrutinyServletFilterTest {
 		verifyDoFilterRejectsRequest();
 	}
 
+	@Test
+	public void doFilterRejectsRequestWithOriginWithMatchingXForwardedHostAndNoHost() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_X_FORWARDED_HOST, "a-host");
+		verifyDoFilterRejectsRequest();
+	}
+
+	@Test
+	public void doFilterRejectsRequestWithOriginWithMultipleHostHeaders() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host", "a-host");
+		verifyDoFilterRejectsRequest();
+	}
+
+	@Test
+	public void doFilterRejectsRequestWithOriginWithMultipleXForwardedHostHeaders() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		mockHeader(HTTP_HEADER_X_FORWARDED_HOST, "a-host", "a-host");
+		verifyDoFilterRejectsRequest();
+	}
+
 	@Test
 	public void doFilterRejectsRequestWithMultipleOriginHeadersWithMatchingHost() throws IOException, ServletException {
 		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host", "http://a-different-host");
@@ -128,6 +871,32 @@ public class CorsHeaderScrutinyServletFilterTest {
 		verifyDoFilterRejectsRequest();
 	}
 
+	@Test
+	public void doFilterRejectsRequestWithManyOriginHeadersReadingOnlyTwo() throws IOException, ServletException {
+		doReturn(new Enumeration<String>() {
+			private int remaining = 2;
+
+			@Override
+			public boolean hasMoreElements() {
+				return true;
+			}
+
+			@Override
+			public String nextElement() {
+				assertThat(remaining--).describedAs("header values read").isPositive();
+				return "http://a-host";
+			}
+		}).when(request).getHeaders(HTTP_HEADER_ORIGIN);
+		mockHeader(HTTP_HEADER_HOST, "a-host");
+		verifyDoFilterRejectsRequest();
+	}
+
+	@Test
+	public void doFilterAcceptsRequestWhenHeadersAreInaccessible() throws IOException, ServletException {
+		doReturn(null).when(request).getHeaders(any());
+		verifyDoFilterAcceptsRequest();
+	}
+
 	@Test
 	public void doFilterAcceptsRequestWithMatchingOrigin() throws IOException, ServletException {
 		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
@@ -149,6 +918,27 @@ public class CorsHeaderScrutinyServletFilterTest {
 		verifyDoFilterAcceptsRequest();
 	}
 
+	@Test
+	public void doFilterAcceptsRequestWithMatchingIPv6OriginAndDifferentPort() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://[::1]:9999");
+		mockHeader(HTTP_HEADER_HOST, "[::1]:8080");
+		verifyDoFilterAcceptsRequest();
+	}
+
+	@Test
+	public void doFilterRejectsRequestWithMalformedOrigin() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a host");
+		mockHeader(HTTP_HEADER_HOST, "a host");
+		verifyDoFilterRejectsRequest();
+	}
+
+	@Test
+	public void doFilterRejectsRequestWithOriginWithHostPrefixOfHostHeader() throws IOException, ServletException {
+		mockHeader(HTTP_HEADER_ORIGIN, "http://a-host");
+		mockHeader(HTTP_HEADER_HOST, "a-host.example.com");
+		verifyDoFilterRejectsRequest();
+	}
+
 	@Test
 	public void doFilterRejectsRequestWithEmptyReferer() throws IOException, ServletException {
 		mockHeader(HTTP_HEADER_REFERER, "");
@@ -230,6 +1020,45 @@ public class CorsHeaderScrutinyServletFilterTest {
 		return config;
 	}
 
+	private FilterConfig configWithConfigFileAs(Path configFile) {
+		doReturn(configFile.toString()).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_CONFIG_FILE);
+		return config;
+	}
+
+	private void writeConfigFile(Path configFile, String... lines) throws IOException {
+		Files.write(configFile, Arrays.asList(lines), StandardCharsets.ISO_8859_1);
+	}
+
+	private void awaitPolicyChange(ScrutinyPolicy previousPolicy) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (filter.getPolicy() == previousPolicy && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(filter.getPolicy()).isNotSameAs(previousPolicy);
+	}
+
+	private void mockPreflight(String origin) {
+		doReturn("OPTIONS").when(request).getMethod();
+		doReturn("PUT").when(request).getHeader("Access-Control-Request-Method");
+		doReturn(origin).when(request).getHeader(HTTP_HEADER_ORIGIN);
+		mockHeader(HTTP_HEADER_ORIGIN, origin);
+	}
+
+	private void mockPath(String path) {
+		doReturn("/context").when(request).getContextPath();
+		doReturn("/context" + path).when(request).getRequestURI();
+	}
+
+	private FilterConfig configWithTrustedOriginsAs(String origins) {
+		doReturn(origins).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_TRUSTED_ORIGINS);
+		return config;
+	}
+
+	private FilterConfig configWithHostVerdictCacheSizeAs(String size) {
+		doReturn(size).when(config).getInitParameter(CorsHeaderScrutinyServletFilter.INIT_PARAM_NAME_HOST_VERDICT_CACHE_SIZE);
+		return config;
+	}
+
 	private void verifyDoFilterAcceptsRequest() throws IOException, ServletException {
 		filter.doFilter(request, response, chain);
 		verify(chain).doFilter(request, response);
@@ -252,15 +1081,21 @@ public class CorsHeaderScrutinyServletFilterTest {
 		verifyNoMoreInteractions(chain);
 	}
 
+	private long countAuditLogWriterThreads() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals("cors-filter-audit-log-writer")).count();
+	}
+
 	private void mockHeader(String headerName, String... values) {
 		doAnswer(i -> Collections.enumeration(Arrays.asList(values))).when(request).getHeaders(headerName);
+		doReturn(values.length == 0 ? null : values[0]).when(request).getHeader(headerName);
 	}
 	
 	private CorsHeaderScrutinyServletFilter createFilterWithPathMatcher(RequestPathMatcher matcher) {
 		return  new CorsHeaderScrutinyServletFilter() {
 			@Override
-			Optional<RequestPathMatcher> getRequestExclusionMatcher() {
-				return Optional.of(matcher);
+			ScrutinyPolicy getPolicy() {
+				return new ScrutinyPolicy(Optional.of(matcher), TrustedOrigins.NONE, new HostVerdictCache(0));
 			}
 		};
 	}
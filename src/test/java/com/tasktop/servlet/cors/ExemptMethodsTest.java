@@ -0,0 +1,38 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ExemptMethodsTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void noneContainsNothing() {
+		assertThat(ExemptMethods.NONE.isEmpty()).isTrue();
+		assertThat(ExemptMethods.NONE.contains("GET")).isFalse();
+	}
+
+	@Test
+	public void containsMethodsCaseSensitively() {
+		ExemptMethods methods = new ExemptMethods(Arrays.asList("GET", "HEAD", "GET"));
+		assertThat(methods.contains("GET")).isTrue();
+		assertThat(methods.contains(new String("HEAD"))).isTrue();
+		assertThat(methods.contains("get")).isFalse();
+		assertThat(methods.contains("POST")).isFalse();
+		assertThat(methods.contains(null)).isFalse();
+	}
+
+	@Test
+	public void rejectsInvalidMethod() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Invalid exempt method \"GET/\"");
+		new ExemptMethods(Arrays.asList("GET/"));
+	}
+}
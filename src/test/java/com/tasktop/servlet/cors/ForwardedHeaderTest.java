@@ -0,0 +1,57 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ForwardedHeaderTest {
+
+	private final TrustedProxies trustedProxies = new TrustedProxies(Arrays.asList("10.0.0.0/8", "fd00::/8"));
+
+	@Test
+	public void findsHostOfSingleElement() {
+		assertHost("for=192.0.2.60;proto=https;host=a-host", "a-host");
+		assertHost("Host=\"a-host:8443\";FOR=192.0.2.60", "a-host:8443");
+		assertHost("for=192.0.2.60;proto=https", null);
+	}
+
+	@Test
+	public void findsHostGivenByOutermostTrustedProxy() {
+		assertHost("for=192.0.2.60;host=a-host, for=10.0.0.1;host=an-internal-host", "a-host");
+		assertHost("for=192.0.2.60, for=10.0.0.1;host=an-internal-host", "an-internal-host");
+		assertHost("for=\"[2001:db8::1]:4711\";host=a-host, for=\"[fd00::1]:80\";host=an-internal-host", "a-host");
+		assertHost("for=192.0.2.60;host=a-host,for=10.0.0.2 ,\tfor=10.0.0.1", "a-host");
+	}
+
+	@Test
+	public void ignoresElementsAddedBeforeUntrustedHop() {
+		assertHost("for=10.0.0.9;host=a-forged-host, for=192.0.2.60;host=a-host, for=10.0.0.1", "a-host");
+		assertHost("host=a-forged-host, for=192.0.2.60, for=10.0.0.1", null);
+		assertHost("for=10.0.0.9;host=a-forged-host, for=unknown, for=10.0.0.1", null);
+		assertHost("for=10.0.0.9;host=a-forged-host, for=\"_hidden\", for=10.0.0.1", null);
+		assertHost("for=10.0.0.9;host=a-forged-host, for=\"[2001:db8::1]\", for=10.0.0.1", null);
+	}
+
+	@Test
+	public void ignoresEmptyElements() {
+		assertHost(", for=192.0.2.60;host=a-host,,", "a-host");
+	}
+
+	@Test
+	public void ignoresMalformedHeader() {
+		assertHost("for=192.0.2.60;host=a-host;host=another-host", null);
+		assertHost("for=192.0.2.60;for=10.0.0.1;host=a-host", null);
+		assertHost("for=192.0.2.60 host=a-host", null);
+		assertHost("for=192.0.2.60;host=\"a-host", null);
+		assertHost("for=192.0.2.60;host=\"a\\-host\"", null);
+		assertHost("for=192.0.2.60;host=", null);
+		assertHost("for=192.0.2.60;=a-host", null);
+		assertHost("for=[::1];host=a-host", null);
+	}
+
+	private void assertHost(String header, String expectedHost) {
+		assertThat(ForwardedHeader.findHost(header, trustedProxies)).describedAs(header).isEqualTo(expectedHost);
+	}
+}
@@ -0,0 +1,93 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class HostVerdictCacheTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void disabledCacheNeverReturnsVerdict() {
+		HostVerdictCache cache = new HostVerdictCache(0);
+		cache.put("http://a-host", "a-host", true);
+		assertThat(cache.isEnabled()).isFalse();
+		assertThat(cache.get("http://a-host", "a-host")).isNull();
+		assertThat(cache.getMissCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void rejectsNegativeSize() {
+		thrown.expect(IllegalArgumentException.class);
+		new HostVerdictCache(-1);
+	}
+
+	@Test
+	public void returnsCachedVerdicts() {
+		HostVerdictCache cache = new HostVerdictCache(16);
+		cache.put("http://a-host", "a-host", true);
+		cache.put("http://a-host", "a-different-host", false);
+		assertThat(cache.get("http://a-host", "a-host")).isTrue();
+		assertThat(cache.get("http://a-host", "a-different-host")).isFalse();
+		assertThat(cache.get("http://a-different-host", "a-host")).isNull();
+		assertThat(cache.getHitCount()).isEqualTo(2);
+		assertThat(cache.getMissCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void doesNotExceedMaximumSize() {
+		assertThat(new HostVerdictCache(1).capacity()).isEqualTo(1);
+		assertThat(new HostVerdictCache(3).capacity()).isEqualTo(3);
+		assertThat(new HostVerdictCache(100).capacity()).isEqualTo(64);
+		assertThat(new HostVerdictCache(128).capacity()).isEqualTo(128);
+	}
+
+	@Test
+	public void evictsEntriesWhenFull() {
+		HostVerdictCache cache = new HostVerdictCache(8);
+		for (int i = 0; i < 1000; ++i) {
+			cache.put("http://host-" + i, "a-host", false);
+		}
+		int retained = 0;
+		for (int i = 0; i < 1000; ++i) {
+			if (cache.get("http://host-" + i, "a-host") != null) {
+				++retained;
+			}
+		}
+		assertThat(retained).isLessThanOrEqualTo(8);
+		assertThat(cache.get("http://host-999", "a-host")).isFalse();
+	}
+
+	@Test
+	public void retainsRecentlyReadEntryOverUnreadEntries() {
+		HostVerdictCache cache = new HostVerdictCache(1);
+		cache.put("http://first", "a-host", true);
+		cache.put("http://second", "a-host", true);
+		assertThat(cache.get("http://first", "a-host")).isNull();
+		assertThat(cache.get("http://second", "a-host")).isTrue();
+
+		HostVerdictCache clockCache = new HostVerdictCache(2);
+		clockCache.put("http://first", "a-host", true);
+		clockCache.put("http://second", "a-host", true);
+		clockCache.get("http://first", "a-host");
+		clockCache.put("http://third", "a-host", true);
+		assertThat(clockCache.get("http://first", "a-host")).isTrue();
+		assertThat(clockCache.get("http://second", "a-host")).isNull();
+		assertThat(clockCache.get("http://third", "a-host")).isTrue();
+	}
+
+	@Test
+	public void doesNotCacheOverlyLongHeaders() {
+		HostVerdictCache cache = new HostVerdictCache(16);
+		StringBuilder referer = new StringBuilder("http://a-host/");
+		while (referer.length() <= 512) {
+			referer.append("path/");
+		}
+		cache.put(referer.toString(), "a-host", true);
+		assertThat(cache.get(referer.toString(), "a-host")).isNull();
+	}
+}
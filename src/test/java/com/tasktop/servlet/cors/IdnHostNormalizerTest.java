@@ -0,0 +1,48 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class IdnHostNormalizerTest {
+
+	private final IdnHostNormalizer normalizer = new IdnHostNormalizer(4);
+
+	@Test
+	public void returnsAsciiHostHeaderItself() {
+		String hostHeader = "A-Host:8080";
+		assertThat(normalizer.normalize(hostHeader)).isSameAs(hostHeader);
+		assertThat(normalizer.normalize(null)).isNull();
+	}
+
+	@Test
+	public void convertsUnicodeHostKeepingPort() {
+		assertThat(normalizer.normalize("bücher.example")).isEqualTo("xn--bcher-kva.example");
+		assertThat(normalizer.normalize("bücher.example:8443")).isEqualTo("xn--bcher-kva.example:8443");
+	}
+
+	@Test
+	public void reusesConvertedHost() {
+		String normalized = normalizer.normalize("bücher.example");
+		assertThat(normalizer.normalize(new String("bücher.example"))).isSameAs(normalized);
+	}
+
+	@Test
+	public void staysCorrectBeyondCapacity() {
+		for (int i = 0; i < 100; ++i) {
+			assertThat(normalizer.normalize("bücher-" + i + ".example")).startsWith("xn--bcher-").endsWith(".example");
+		}
+	}
+
+	@Test
+	public void returnsInvalidHostHeaderItself() {
+		String hostHeader = "bücher..example";
+		assertThat(normalizer.normalize(hostHeader)).isSameAs(hostHeader);
+	}
+
+	@Test
+	public void convertsConfiguredHostToLowerCaseAscii() {
+		assertThat(IdnHostNormalizer.toAscii("A-Host")).isEqualTo("a-host");
+		assertThat(IdnHostNormalizer.toAscii("Bücher.Example")).isEqualTo("xn--bcher-kva.example");
+	}
+}
@@ -0,0 +1,51 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		assertThat(histogram.getCount()).isEqualTo(0);
+		assertThat(histogram.getValueAtQuantile(0.99)).isEqualTo(0);
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long value = 0; value < 8; ++value) {
+			assertThat(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value))).isEqualTo(value);
+		}
+	}
+
+	@Test
+	public void bucketsBoundValuesWithinOneEighth() {
+		for (long value = 8; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+			assertThat(upperBound).isGreaterThanOrEqualTo(value);
+			assertThat(upperBound - value).isLessThanOrEqualTo(value / 8);
+		}
+		assertThat(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)))
+				.isEqualTo(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void reportsValuesAtQuantiles() {
+		for (int i = 1; i <= 1000; ++i) {
+			histogram.record(i * 1000L);
+		}
+		assertThat(histogram.getCount()).isEqualTo(1000);
+		assertThat(histogram.getValueAtQuantile(0.5)).isBetween(500_000L, 500_000L + 500_000L / 8);
+		assertThat(histogram.getValueAtQuantile(0.99)).isBetween(990_000L, 990_000L + 990_000L / 8);
+		assertThat(histogram.getValueAtQuantile(1.0)).isBetween(1_000_000L, 1_000_000L + 1_000_000L / 8);
+	}
+
+	@Test
+	public void recordsNegativeDurationsAsZero() {
+		histogram.record(-5);
+		assertThat(histogram.getValueAtQuantile(0.5)).isEqualTo(0);
+	}
+}
@@ -0,0 +1,128 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PathPatternAutomatonTest {
+
+	private static final String[] SEGMENTS = { "a", "b", "ab", "api", "*", "a*", "*b", "a*b", "**", "", "é" };
+	private static final String[] PATH_SEGMENTS = { "a", "b", "ab", "aab", "abb", "api", "x", "", "é", "a.b" };
+
+	@Test
+	public void emptyAutomatonMatchesNothing() {
+		PathPatternAutomaton automaton = new PathPatternAutomaton(Collections.emptyList());
+		assertThat(automaton.matches("")).isFalse();
+		assertThat(automaton.matches("/a")).isFalse();
+	}
+
+	@Test
+	public void matchesLiteralPatternAsWholePath() {
+		PathPatternAutomaton automaton = new PathPatternAutomaton(Arrays.asList("/api/public"));
+		assertThat(automaton.matches("/api/public")).isTrue();
+		assertThat(automaton.matches("/api/public/")).isFalse();
+		assertThat(automaton.matches("/api/publi")).isFalse();
+	}
+
+	@Test
+	public void matchesStarWithinOneSegment() {
+		PathPatternAutomaton automaton = new PathPatternAutomaton(Arrays.asList("/api/*/public", "/static/*.css"));
+		assertThat(automaton.matches("/api/v1/public")).isTrue();
+		assertThat(automaton.matches("/api//public")).isTrue();
+		assertThat(automaton.matches("/api/v1/v2/public")).isFalse();
+		assertThat(automaton.matches("/static/site.css")).isTrue();
+		assertThat(automaton.matches("/static/a/site.css")).isFalse();
+	}
+
+	@Test
+	public void matchesDoubleStarAcrossAnyDepth() {
+		PathPatternAutomaton automaton = new PathPatternAutomaton(Arrays.asList("/api/*/public/**", "/**/health"));
+		assertThat(automaton.matches("/api/v1/public")).isTrue();
+		assertThat(automaton.matches("/api/v1/public/")).isTrue();
+		assertThat(automaton.matches("/api/v1/public/a/b/c")).isTrue();
+		assertThat(automaton.matches("/api/v1/publicity")).isFalse();
+		assertThat(automaton.matches("/health")).isTrue();
+		assertThat(automaton.matches("/a/b/health")).isTrue();
+		assertThat(automaton.matches("/a/b/healthy")).isFalse();
+	}
+
+	@Test
+	public void matchesTailOfPathFromIndex() {
+		PathPatternAutomaton automaton = new PathPatternAutomaton(Arrays.asList("/api/**"));
+		assertThat(automaton.matches("/context/api/x", "/context".length())).isTrue();
+		assertThat(automaton.matches("/context/x", "/context".length())).isFalse();
+	}
+
+	@Test
+	public void sharesStatesBetweenPatterns() {
+		List<String> patterns = new ArrayList<>();
+		int length = 0;
+		for (int i = 0; i < 1000; ++i) {
+			patterns.add("/api/" + i + "/*/public/**");
+			length += patterns.get(i).length();
+		}
+		PathPatternAutomaton automaton = new PathPatternAutomaton(patterns);
+		assertThat(automaton.matches("/api/999/x/public/y")).isTrue();
+		assertThat(automaton.matches("/api/1000/x/public/y")).isFalse();
+		assertThat(automaton.stateCount()).isLessThan(length);
+	}
+
+	@Test
+	public void matchesSameAsRegularExpressionForRandomPatterns() {
+		Random random = new Random(2023);
+		for (int i = 0; i < 2_000; ++i) {
+			List<String> patterns = new ArrayList<>();
+			int count = 1 + random.nextInt(4);
+			for (int j = 0; j < count; ++j) {
+				patterns.add(randomPath(random, SEGMENTS));
+			}
+			PathPatternAutomaton automaton = new PathPatternAutomaton(patterns);
+			Pattern regex = toRegularExpression(patterns);
+			for (int j = 0; j < 50; ++j) {
+				String path = randomPath(random, PATH_SEGMENTS);
+				assertThat(automaton.matches(path)).describedAs("%s matching \"%s\"", patterns, path)
+						.isEqualTo(regex.matcher(path).matches());
+			}
+		}
+	}
+
+	private String randomPath(Random random, String[] segments) {
+		StringBuilder path = new StringBuilder();
+		int length = 1 + random.nextInt(4);
+		for (int i = 0; i < length; ++i) {
+			path.append('/').append(segments[random.nextInt(segments.length)]);
+		}
+		return path.toString();
+	}
+
+	private Pattern toRegularExpression(List<String> patterns) {
+		StringBuilder regex = new StringBuilder();
+		for (String pattern : patterns) {
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:");
+			String[] segments = pattern.split("/", -1);
+			for (int i = 1; i < segments.length; ++i) {
+				if (segments[i].equals("**")) {
+					regex.append("(?:/.*)?");
+				} else {
+					regex.append('/');
+					for (String part : segments[i].split("\\*", -1)) {
+						regex.append(Pattern.quote(part)).append("[^/]*");
+					}
+					regex.setLength(regex.length() - "[^/]*".length());
+				}
+			}
+			regex.append(')');
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+}
@@ -0,0 +1,58 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PathPrefixTrieTest {
+
+	@Test
+	public void emptyTrieMatchesNothing() {
+		PathPrefixTrie trie = new PathPrefixTrie(Collections.emptyList());
+		assertThat(trie.matchesPrefixOf("")).isFalse();
+		assertThat(trie.matchesPrefixOf("/a")).isFalse();
+	}
+
+	@Test
+	public void emptyPrefixMatchesEverything() {
+		PathPrefixTrie trie = new PathPrefixTrie(Arrays.asList(""));
+		assertThat(trie.matchesPrefixOf("")).isTrue();
+		assertThat(trie.matchesPrefixOf("/a")).isTrue();
+	}
+
+	@Test
+	public void matchesExactPrefix() {
+		PathPrefixTrie trie = new PathPrefixTrie(Arrays.asList("/api/"));
+		assertThat(trie.matchesPrefixOf("/api/")).isTrue();
+		assertThat(trie.matchesPrefixOf("/api/one")).isTrue();
+		assertThat(trie.matchesPrefixOf("/api")).isFalse();
+		assertThat(trie.matchesPrefixOf("/apis/")).isFalse();
+	}
+
+	@Test
+	public void shorterPrefixAddedAfterLongerPrefixMatches() {
+		PathPrefixTrie trie = new PathPrefixTrie(Arrays.asList("/api/one/", "/api/"));
+		assertThat(trie.matchesPrefixOf("/api/two")).isTrue();
+		assertThat(trie.matchesPrefixOf("/api/one/x")).isTrue();
+	}
+
+	@Test
+	public void longerPrefixAddedAfterShorterPrefixMatches() {
+		PathPrefixTrie trie = new PathPrefixTrie(Arrays.asList("/api/", "/api/one/"));
+		assertThat(trie.matchesPrefixOf("/api/two")).isTrue();
+		assertThat(trie.matchesPrefixOf("/api/one/x")).isTrue();
+	}
+
+	@Test
+	public void matchesAnyOfSiblingPrefixes() {
+		PathPrefixTrie trie = new PathPrefixTrie(Arrays.asList("/c", "/a", "/b/x"));
+		assertThat(trie.matchesPrefixOf("/a")).isTrue();
+		assertThat(trie.matchesPrefixOf("/b/x/y")).isTrue();
+		assertThat(trie.matchesPrefixOf("/c/d")).isTrue();
+		assertThat(trie.matchesPrefixOf("/b/y")).isFalse();
+		assertThat(trie.matchesPrefixOf("/d")).isFalse();
+	}
+}
@@ -0,0 +1,100 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class PreflightResponseTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final HttpServletRequest request = mock(HttpServletRequest.class);
+
+	private final HttpServletResponse response = mock(HttpServletResponse.class);
+
+	@Test
+	public void joinsDistinctMethodsAndHeadersOnce() {
+		PreflightResponse preflightResponse = new PreflightResponse(Arrays.asList("GET", "POST", "GET"),
+				Arrays.asList("Content-Type", "X-Requested-With"), false, 600);
+		assertThat(preflightResponse.getAllowMethods()).isEqualTo("GET, POST");
+		assertThat(preflightResponse.getAllowHeaders()).contains("Content-Type, X-Requested-With");
+		assertThat(preflightResponse.getMaxAge()).isEqualTo("600");
+	}
+
+	@Test
+	public void writesHeaders() {
+		PreflightResponse preflightResponse = new PreflightResponse(Arrays.asList("GET", "PUT"),
+				Collections.singletonList("Content-Type"), true, 60);
+		preflightResponse.writeTo(response, "https://a-host");
+		verify(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+		verify(response).setHeader("Access-Control-Allow-Origin", "https://a-host");
+		verify(response).setHeader("Access-Control-Allow-Methods", "GET, PUT");
+		verify(response).setHeader("Access-Control-Allow-Headers", "Content-Type");
+		verify(response).setHeader("Access-Control-Allow-Credentials", "true");
+		verify(response).setHeader("Access-Control-Max-Age", "60");
+		verify(response).addHeader("Vary", "Origin");
+	}
+
+	@Test
+	public void writesNoOptionalHeaders() {
+		PreflightResponse preflightResponse = new PreflightResponse(Collections.singletonList("GET"),
+				Collections.emptyList(), false, 60);
+		preflightResponse.writeTo(response, "https://a-host");
+		verify(response, never()).setHeader("Access-Control-Allow-Headers", "");
+		verify(response, never()).setHeader("Access-Control-Allow-Credentials", "true");
+		assertThat(preflightResponse.getAllowHeaders()).isEmpty();
+	}
+
+	@Test
+	public void rejectsInvalidMethod() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Invalid preflight method \"GET;\"");
+		new PreflightResponse(Collections.singletonList("GET;"), Collections.emptyList(), false, 60);
+	}
+
+	@Test
+	public void rejectsInvalidHeader() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Invalid preflight header \"X-Ä\"");
+		new PreflightResponse(Collections.singletonList("GET"), Collections.singletonList("X-Ä"), false, 60);
+	}
+
+	@Test
+	public void rejectsNoMethods() {
+		thrown.expect(IllegalArgumentException.class);
+		new PreflightResponse(Collections.emptyList(), Collections.emptyList(), false, 60);
+	}
+
+	@Test
+	public void detectsPreflight() {
+		doReturn("OPTIONS").when(request).getMethod();
+		doReturn("PUT").when(request).getHeader("Access-Control-Request-Method");
+		assertThat(PreflightResponse.isPreflight(request)).isTrue();
+	}
+
+	@Test
+	public void detectsOptionsRequestThatIsNoPreflight() {
+		doReturn("OPTIONS").when(request).getMethod();
+		assertThat(PreflightResponse.isPreflight(request)).isFalse();
+	}
+
+	@Test
+	public void detectsOtherMethodThatIsNoPreflight() {
+		doReturn("PUT").when(request).getMethod();
+		doReturn("PUT").when(request).getHeader("Access-Control-Request-Method");
+		assertThat(PreflightResponse.isPreflight(request)).isFalse();
+	}
+}
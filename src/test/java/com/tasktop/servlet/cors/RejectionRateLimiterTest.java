@@ -0,0 +1,112 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RejectionRateLimiterTest {
+
+	private long now = 1_000_000L;
+
+	@Test
+	public void disabled() {
+		assertThat(RejectionRateLimiter.DISABLED.isEnabled()).isFalse();
+		for (int i = 0; i < 100; ++i) {
+			assertThat(RejectionRateLimiter.DISABLED.rejected("http://a-host", "b-host")).isFalse();
+		}
+		assertThat(RejectionRateLimiter.DISABLED.isBlocked("http://a-host", "b-host")).isFalse();
+	}
+
+	@Test
+	public void blocksPairExceedingBurst() {
+		RejectionRateLimiter limiter = createLimiter(64, 1, 3, 1000);
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isTrue();
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isTrue();
+		assertThat(limiter.isBlocked("http://a-host", "c-host")).isFalse();
+		assertThat(limiter.isBlocked("http://c-host", "b-host")).isFalse();
+	}
+
+	@Test
+	public void liftsBlockAfterBlockTime() {
+		RejectionRateLimiter limiter = createLimiter(64, 1, 1, 1000);
+		limiter.rejected("http://a-host", "b-host");
+		assertThat(limiter.rejected("http://a-host", "b-host")).isTrue();
+		advanceMillis(999);
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isTrue();
+		advanceMillis(1);
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isFalse();
+	}
+
+	@Test
+	public void clearLiftsBlocksAndRefillsTokens() {
+		RejectionRateLimiter limiter = createLimiter(64, 1, 1, 1000);
+		limiter.rejected("http://a-host", "b-host");
+		assertThat(limiter.rejected("http://a-host", "b-host")).isTrue();
+		limiter.clear();
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+	}
+
+	@Test
+	public void refillsTokensAtRate() {
+		RejectionRateLimiter limiter = createLimiter(64, 10, 2, 1000);
+		for (int i = 0; i < 100; ++i) {
+			assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+			advanceMillis(100);
+		}
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", "b-host")).isTrue();
+	}
+
+	@Test
+	public void staysWithinCapacityForManyPairs() {
+		RejectionRateLimiter limiter = createLimiter(16, 1, 1, 1000);
+		assertThat(limiter.capacity()).isEqualTo(16);
+		for (int i = 0; i < 10_000; ++i) {
+			limiter.rejected("http://host-" + i, "b-host");
+			advanceMillis(1);
+		}
+		assertThat(limiter.capacity()).isEqualTo(16);
+	}
+
+	@Test
+	public void keepsBlockedPairsOverIdlePairs() {
+		RejectionRateLimiter limiter = createLimiter(4, 1, 1, 60_000);
+		limiter.rejected("http://a-host", "b-host");
+		assertThat(limiter.rejected("http://a-host", "b-host")).isTrue();
+		for (int i = 0; i < 100; ++i) {
+			advanceMillis(10);
+			limiter.rejected("http://host-" + i, "b-host");
+		}
+		assertThat(limiter.isBlocked("http://a-host", "b-host")).isTrue();
+	}
+
+	@Test
+	public void ignoresMissingAndOverlongHeaders() {
+		RejectionRateLimiter limiter = createLimiter(64, 1, 1, 1000);
+		assertThat(limiter.rejected(null, "b-host")).isFalse();
+		assertThat(limiter.rejected("http://a-host", null)).isFalse();
+		assertThat(limiter.isBlocked(null, null)).isFalse();
+		StringBuilder longOrigin = new StringBuilder("http://");
+		for (int i = 0; i < 600; ++i) {
+			longOrigin.append('a');
+		}
+		assertThat(limiter.rejected(longOrigin.toString(), "b-host")).isFalse();
+		assertThat(limiter.rejected(longOrigin.toString(), "b-host")).isFalse();
+	}
+
+	private RejectionRateLimiter createLimiter(int size, int rejectionsPerSecond, int burst, long blockMillis) {
+		return new RejectionRateLimiter(size, rejectionsPerSecond, burst, blockMillis, () -> now);
+	}
+
+	private void advanceMillis(long millis) {
+		now += TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
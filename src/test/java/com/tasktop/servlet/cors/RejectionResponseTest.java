@@ -0,0 +1,109 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class RejectionResponseTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final HttpServletResponse response = mock(HttpServletResponse.class);
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	@Test
+	public void writesStatusHeadersAndBody() throws IOException {
+		mockOutputStream();
+		RejectionResponse rejectionResponse = new RejectionResponse("Zugriff verweigert – Forbidden",
+				RejectionResponse.DEFAULT_CONTENT_TYPE);
+		rejectionResponse.writeTo(response);
+		byte[] expectedBody = "Zugriff verweigert – Forbidden".getBytes(StandardCharsets.UTF_8);
+		verify(response).setStatus(HttpServletResponse.SC_FORBIDDEN);
+		verify(response).setHeader("Cache-Control", "no-store");
+		verify(response).setHeader("X-Content-Type-Options", "nosniff");
+		verify(response).setContentType("text/plain;charset=UTF-8");
+		verify(response).setContentLength(expectedBody.length);
+		verify(response, never()).sendError(HttpServletResponse.SC_FORBIDDEN, "Forbidden");
+		assertThat(body.toByteArray()).isEqualTo(expectedBody);
+		assertThat(rejectionResponse.getContentLength()).isEqualTo(expectedBody.length);
+	}
+
+	@Test
+	public void writesEmptyBodyWithoutOpeningOutputStream() throws IOException {
+		new RejectionResponse("", "application/json").writeTo(response);
+		verify(response).setContentLength(0);
+		verify(response).setContentType("application/json");
+		verify(response, never()).getOutputStream();
+	}
+
+	@Test
+	public void trimsContentType() {
+		assertThat(new RejectionResponse("{}", " application/json ").getContentType()).isEqualTo("application/json");
+	}
+
+	@Test
+	public void encodesBodyInCharsetOfContentType() throws IOException {
+		mockOutputStream();
+		RejectionResponse rejectionResponse = new RejectionResponse("<p>Accès refusé</p>",
+				"text/html; Charset=\"ISO-8859-1\"");
+		rejectionResponse.writeTo(response);
+		assertThat(body.toByteArray()).isEqualTo("<p>Accès refusé</p>".getBytes(StandardCharsets.ISO_8859_1));
+		assertThat(new RejectionResponse("é", "application/json").getContentLength()).isEqualTo(2);
+	}
+
+	@Test
+	public void rejectsUnsupportedCharset() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Unsupported charset \"no-such-charset\"");
+		new RejectionResponse("Forbidden", "text/plain;charset=no-such-charset");
+	}
+
+	@Test
+	public void rejectsBodyNotEncodableInCharset() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("cannot be encoded in US-ASCII");
+		new RejectionResponse("Zugriff verweigert – Forbidden", "text/plain;charset=US-ASCII");
+	}
+
+	@Test
+	public void rejectsContentTypeWithControlCharacter() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Invalid content type");
+		new RejectionResponse("Forbidden", "text/plain\r\nSet-Cookie: a=b");
+	}
+
+	private void mockOutputStream() throws IOException {
+		doReturn(new ServletOutputStream() {
+
+			@Override
+			public void write(int b) {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		}).when(response).getOutputStream();
+	}
+}
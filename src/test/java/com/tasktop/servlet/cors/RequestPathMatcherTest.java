@@ -1,10 +1,19 @@
 package com.tasktop.servlet.cors;
 
+import static java.util.stream.Collectors.joining;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -97,6 +106,114 @@ public class RequestPathMatcherTest {
 		assertDoesNotMatchRequest(mockRequest("endpoint", "somewhere/third/place"));
 	}
 	
+	@Test
+	public void matchesRequestWithPercentEncodedContextPath() {
+		requestMatcher = createRequestPathMatcher("/somewhere");
+		assertMatchesRequest(mockRequest("/a%20context", "somewhere"));
+		assertMatchesRequest(mockRequest("/a+context", "somewhere/else"));
+		assertDoesNotMatchRequest(mockRequest("/a%20context", "elsewhere"));
+	}
+	
+	@Test
+	public void matchesRequestsAcrossDifferentContextPaths() {
+		requestMatcher = createRequestPathMatcher("/somewhere");
+		assertMatchesRequest(mockRequest("/first", "somewhere"));
+		assertMatchesRequest(mockRequest("/second-context", "somewhere"));
+		assertDoesNotMatchRequest(mockRequest("/first", "nowhere"));
+		assertMatchesRequest(mockRequest("", "somewhere"));
+	}
+	
+	@Test
+	public void matchesRequestWhenOnlyRequestIsPercentEncodedAfterContextPath() {
+		requestMatcher = createRequestPathMatcher("/some where");
+		assertMatchesRequest(mockRequest("/a%20context", "some+where"));
+		assertMatchesRequest(mockRequest("/context", "some%20where"));
+	}
+	
+	@Test
+	public void matchesEverythingWithEmptyPathList() {
+		requestMatcher = new RequestPathMatcher(Collections.emptyList());
+		assertMatchesRequest(mockRequest("endpoint", "somewhere"));
+	}
+	
+	@Test
+	public void matchesRequestsLikeRegularExpressionMatcher() {
+		Random random = new Random(42);
+		for (int round = 0; round < 200; ++round) {
+			List<String> paths = new ArrayList<>();
+			int pathCount = random.nextInt(6);
+			for (int i = 0; i < pathCount; ++i) {
+				paths.add("/" + randomPath(random));
+			}
+			requestMatcher = new RequestPathMatcher(paths);
+			for (int i = 0; i < 5; ++i) {
+				HttpServletRequest request = mockRequest("/" + randomPath(random), randomPath(random));
+				assertThat(requestMatcher.matchesRequest(request))
+					.describedAs("%s matching %s", paths, request.getRequestURI())
+					.isEqualTo(matchesRequestWithRegularExpression(paths, request));
+			}
+		}
+	}
+	
+	private String randomPath(Random random) {
+		String[] segments = { "a", "b", "ab", "/", "é", "%C3%A9", "+", "%20", ".", "\\E", "*" };
+		StringBuilder path = new StringBuilder();
+		int length = random.nextInt(6);
+		for (int i = 0; i < length; ++i) {
+			path.append(segments[random.nextInt(segments.length)]);
+		}
+		return path.toString();
+	}
+	
+	private boolean matchesRequestWithRegularExpression(List<String> paths, HttpServletRequest request) {
+		Pattern pattern = Pattern.compile(paths.stream()
+				.map(this::decode)
+				.map(Pattern::quote)
+				.map(quoted -> "^" + quoted)
+				.collect(joining("|")));
+		String requestUri = decode(request.getRequestURI());
+		int contextPathLength = decode(request.getContextPath()).length();
+		return contextPathLength <= requestUri.length() && pattern.matcher(requestUri.substring(contextPathLength)).find();
+	}
+	
+	private String decode(String path) {
+		try {
+			return URLDecoder.decode(path, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Test
+	public void matchesRequestByPrefixOrPattern() {
+		requestMatcher = new RequestPathMatcher(Arrays.asList("/static/"), Arrays.asList("/api/*/public/**"));
+		assertMatchesRequest(mockRequest("/context", "static/site.css"));
+		assertMatchesRequest(mockRequest("/context", "api/v1/public/a/b"));
+		assertMatchesRequest(mockRequest("/context", "api/v%31/public"));
+		assertDoesNotMatchRequest(mockRequest("/context", "api/v1/private"));
+		assertDoesNotMatchRequest(mockRequest("/context", "api/v1/v2/public"));
+	}
+	
+	@Test
+	public void escapedWildcardAndSlashInPatternMatchOnlyThemselves() {
+		requestMatcher = new RequestPathMatcher(Collections.emptyList(),
+				Arrays.asList("/files/%2A/x", "/docs/%2a%2A/y", "/a%2Fb/*"));
+		assertMatchesRequest(mockRequest("/context", "files/%2A/x"));
+		assertMatchesRequest(mockRequest("/context", "files/*/x"));
+		assertDoesNotMatchRequest(mockRequest("/context", "files/a/x"));
+		assertMatchesRequest(mockRequest("/context", "docs/**/y"));
+		assertDoesNotMatchRequest(mockRequest("/context", "docs/y"));
+		assertDoesNotMatchRequest(mockRequest("/context", "docs/a/b/y"));
+		assertMatchesRequest(mockRequest("/context", "a%2Fb/c"));
+		assertDoesNotMatchRequest(mockRequest("/context", "a%2Fb/c/d"));
+	}
+	
+	@Test
+	public void emptyListOfPatternsMatchesNoRequest() {
+		requestMatcher = new RequestPathMatcher(Collections.emptyList(), Collections.emptyList());
+		assertDoesNotMatchRequest(mockRequest("/context", "anything"));
+	}
+	
 	private RequestPathMatcher createRequestPathMatcher(String... paths) {
 		return new RequestPathMatcher(Arrays.asList(paths));
 	}
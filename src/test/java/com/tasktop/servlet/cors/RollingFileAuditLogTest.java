@@ -0,0 +1,145 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RollingFileAuditLogTest {
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final HttpServletRequest request = mock(HttpServletRequest.class);
+
+	@Test
+	public void writesRejectedRequest() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("POST", "/context/path", "a-host", "http://another-host");
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1024 * 1024, 1);
+		log.requestRejected(request, Verdict.HOST_MISMATCH);
+		log.close();
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(1);
+		assertThat(lines.get(0)).matches("\\d{4}-\\d\\d-\\d\\dT\\S+Z reason=HOST_MISMATCH method=\"POST\" "
+				+ "path=\"/context/path\" host=\"a-host\" origin=\"http://another-host\"");
+		assertThat(log.getWrittenCount()).isEqualTo(1);
+		assertThat(log.getDroppedCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void escapesHeaderValues() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("GET", "/path", "a-host", "http://x\"\\\n2017-01-01T00:00:00Z reason=FORGED");
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1024 * 1024, 1);
+		log.requestRejected(request, Verdict.HOST_MISMATCH);
+		log.close();
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		assertThat(lines).hasSize(1);
+		assertThat(lines.get(0)).endsWith("origin=\"http://x\\\"\\\\\\u000a2017-01-01T00:00:00Z reason=FORGED\"");
+	}
+
+	@Test
+	public void appendsToExistingFile() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("GET", "/path", "a-host", "http://another-host");
+		for (int i = 0; i < 2; ++i) {
+			RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1024 * 1024, 1);
+			log.requestRejected(request, Verdict.HOST_MISMATCH);
+			log.close();
+		}
+		assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(2);
+	}
+
+	@Test
+	public void rollsOverFullFile() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("GET", "/path", "a-host", "http://another-host");
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1, 2);
+		for (int i = 0; i < 4; ++i) {
+			log.requestRejected(request, Verdict.HOST_MISMATCH);
+		}
+		log.close();
+
+		assertThat(Files.size(file)).isEqualTo(0);
+		assertThat(Files.readAllLines(file.resolveSibling("audit.log.1"), StandardCharsets.UTF_8)).hasSize(1);
+		assertThat(Files.readAllLines(file.resolveSibling("audit.log.2"), StandardCharsets.UTF_8)).hasSize(1);
+		assertThat(file.resolveSibling("audit.log.3")).doesNotExist();
+		assertThat(log.getWrittenCount()).isEqualTo(4);
+	}
+
+	@Test
+	public void dropsRequestsWhenBufferIsFull() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("GET", "/path", "a-host", "http://another-host");
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 2, 1024 * 1024, 1);
+		for (int i = 0; i < 10_000; ++i) {
+			log.requestRejected(request, Verdict.HOST_MISMATCH);
+		}
+		log.close();
+
+		assertThat(log.getDroppedCount()).isGreaterThan(0);
+		assertThat(log.getWrittenCount() + log.getDroppedCount()).isEqualTo(10_000);
+		assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize((int) log.getWrittenCount());
+	}
+
+	@Test
+	public void dropsRequestsOnceClosed() throws IOException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		mockRequest("GET", "/path", "a-host", "http://another-host");
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1024 * 1024, 1);
+		log.close();
+		log.requestRejected(request, Verdict.HOST_MISMATCH);
+
+		assertThat(log.getDroppedCount()).isEqualTo(1);
+		assertThat(Files.size(file)).isEqualTo(0);
+	}
+
+	@Test
+	public void reopensFileAfterWriteFailure() throws IOException, InterruptedException {
+		Path file = temporaryFolder.getRoot().toPath().resolve("audit.log");
+		Path backupFile = file.resolveSibling("audit.log.1");
+		Path blockingFile = Files.createDirectories(backupFile).resolve("blocking");
+		Files.createFile(blockingFile);// so that rolling over fails
+		mockRequest("GET", "/path", "a-host", "http://another-host");
+		List<String> messages = new CopyOnWriteArrayList<>();
+		RollingFileAuditLog log = new RollingFileAuditLog(file, 16, 1, 1, (message, e) -> messages.add(message));
+		log.requestRejected(request, Verdict.HOST_MISMATCH);
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (messages.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Files.delete(blockingFile);
+		Files.delete(backupFile);
+		log.requestRejected(request, Verdict.HOST_MISMATCH);
+		log.close();
+
+		assertThat(messages).containsExactly(
+				"Cannot write audit log file " + file + ", dropping rejected requests until it can be reopened",
+				"Resumed writing audit log file " + file);
+		assertThat(Files.readAllLines(backupFile, StandardCharsets.UTF_8)).hasSize(2);
+		assertThat(log.getWrittenCount()).isEqualTo(2);
+		assertThat(log.getDroppedCount()).isEqualTo(0);
+	}
+
+	private void mockRequest(String method, String path, String host, String origin) {
+		doReturn(method).when(request).getMethod();
+		doReturn(path).when(request).getRequestURI();
+		doReturn(host).when(request).getHeader("Host");
+		doReturn(origin).when(request).getHeader("Origin");
+	}
+}
@@ -0,0 +1,106 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ScrutinyPolicyTest {
+
+	private final Map<String, String> parameters = new HashMap<>();
+
+	@Test
+	public void defaultPolicyHasNoVirtualHosts() {
+		ScrutinyPolicy policy = ScrutinyPolicy.fromParameters(parameters::get);
+		assertThat(policy.hasVirtualHosts()).isFalse();
+		assertThat(policy.getRequestExclusionMatcher()).isEmpty();
+		assertThat(policy.getTrustedOrigins().isEmpty()).isTrue();
+		assertThat(policy.getHostPolicy("a-host")).isSameAs(policy.getDefaultHostPolicy());
+	}
+
+	@Test
+	public void virtualHostInheritsWhatItDoesNotOverride() {
+		parameters.put("path-exclusion-prefix", "/excluded");
+		parameters.put("trusted-origins", "trusted.example.com");
+		parameters.put("virtual-hosts", "a-host another-host");
+		parameters.put("virtual-host.a-host.trusted-origins", "a-trusted.example.com");
+		parameters.put("virtual-host.another-host.path-exclusion-prefix", "/another");
+		ScrutinyPolicy policy = ScrutinyPolicy.fromParameters(parameters::get);
+
+		HostPolicy defaultPolicy = policy.getDefaultHostPolicy();
+		HostPolicy aHostPolicy = policy.getHostPolicy("a-host");
+		HostPolicy anotherHostPolicy = policy.getHostPolicy("another-host:8080");
+		assertThat(policy.hasVirtualHosts()).isTrue();
+		assertThat(policy.getHostPolicy("unknown-host")).isSameAs(defaultPolicy);
+
+		assertThat(aHostPolicy.getRequestExclusionMatcher()).isSameAs(defaultPolicy.getRequestExclusionMatcher());
+		assertThat(aHostPolicy.getTrustedOrigins().contains("a-trusted.example.com", 0, 21)).isTrue();
+		assertThat(aHostPolicy.getTrustedOrigins().contains("trusted.example.com", 0, 19)).isFalse();
+
+		assertThat(anotherHostPolicy.getTrustedOrigins()).isSameAs(defaultPolicy.getTrustedOrigins());
+		assertThat(anotherHostPolicy.getRequestExclusionMatcher()).isNotEqualTo(defaultPolicy.getRequestExclusionMatcher());
+	}
+
+	@Test
+	public void virtualHostOverridesExemptMethods() {
+		parameters.put("exempt-methods", "GET HEAD");
+		parameters.put("virtual-hosts", "a-host another-host a-third-host");
+		parameters.put("virtual-host.a-host.exempt-methods", "");
+		parameters.put("virtual-host.another-host.exempt-methods", "HEAD, GET");
+		ScrutinyPolicy policy = ScrutinyPolicy.fromParameters(parameters::get);
+
+		assertThat(policy.getDefaultHostPolicy().getExemptMethods().contains("GET")).isTrue();
+		assertThat(policy.getHostPolicy("a-host").getExemptMethods().isEmpty()).isTrue();
+		assertThat(policy.getHostPolicy("another-host").getExemptMethods())
+				.isSameAs(policy.getDefaultHostPolicy().getExemptMethods());
+		assertThat(policy.getHostPolicy("a-third-host")).isSameAs(policy.getDefaultHostPolicy());
+	}
+
+	@Test
+	public void virtualHostsConfiguredAlikeShareOnePolicy() {
+		parameters.put("virtual-hosts", "a-host, another-host, a-third-host, a-fourth-host");
+		parameters.put("virtual-host.a-host.path-exclusion-prefix", "/a /b");
+		parameters.put("virtual-host.a-host.trusted-origins", "a.example.com b.example.com");
+		parameters.put("virtual-host.another-host.path-exclusion-prefix", "b, a");
+		parameters.put("virtual-host.another-host.trusted-origins", "b.example.com,a.example.com");
+		parameters.put("virtual-host.a-third-host.path-exclusion-prefix", "/a /b");
+		parameters.put("virtual-host.a-fourth-host.trusted-origins", "a.example.com b.example.com");
+		ScrutinyPolicy policy = ScrutinyPolicy.fromParameters(parameters::get);
+
+		assertThat(policy.getHostPolicy("another-host")).isSameAs(policy.getHostPolicy("a-host"));
+		assertThat(policy.getHostPolicy("a-third-host").getRequestExclusionMatcher())
+				.isSameAs(policy.getHostPolicy("a-host").getRequestExclusionMatcher());
+		assertThat(policy.getHostPolicy("a-fourth-host").getTrustedOrigins())
+				.isSameAs(policy.getHostPolicy("a-host").getTrustedOrigins());
+	}
+
+	@Test
+	public void virtualHostInheritsExclusionPrefixesAndPatternsSeparately() {
+		parameters.put("path-exclusion-prefix", "/static/");
+		parameters.put("path-exclusion-pattern", "/api/*/public/**");
+		parameters.put("virtual-hosts", "a-host another-host");
+		parameters.put("virtual-host.a-host.path-exclusion-pattern", "/api/*/public/**");
+		parameters.put("virtual-host.another-host.path-exclusion-pattern", "/other/**");
+		ScrutinyPolicy policy = ScrutinyPolicy.fromParameters(parameters::get);
+
+		assertThat(policy.getRequestExclusionMatcher()).isPresent();
+		assertThat(policy.getHostPolicy("a-host")).isSameAs(policy.getDefaultHostPolicy());
+		assertThat(policy.getHostPolicy("another-host").getRequestExclusionMatcher())
+				.isNotEqualTo(policy.getRequestExclusionMatcher());
+	}
+
+	@Test
+	public void reportOnlyModeSamplesAllRequestsByDefault() {
+		assertThat(ScrutinyPolicy.fromParameters(parameters::get).getReportOnlyMode()).isEmpty();
+		parameters.put("report-only", "true");
+		assertThat(ScrutinyPolicy.fromParameters(parameters::get).getReportOnlyMode().get().getSampleRate())
+				.isEqualTo(1.0);
+		parameters.put("report-only-sample-rate", "0.01");
+		assertThat(ScrutinyPolicy.fromParameters(parameters::get).getReportOnlyMode().get().getSampleRate())
+				.isEqualTo(0.01);
+		parameters.put("report-only", "false");
+		assertThat(ScrutinyPolicy.fromParameters(parameters::get).getReportOnlyMode()).isEmpty();
+	}
+}
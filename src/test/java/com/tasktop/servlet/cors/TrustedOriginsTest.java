@@ -0,0 +1,116 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TrustedOriginsTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void noneContainsNothing() {
+		assertThat(TrustedOrigins.NONE.isEmpty()).isTrue();
+		assertThat(contains(TrustedOrigins.NONE, "a-host")).isFalse();
+	}
+
+	@Test
+	public void containsExactHosts() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("a-host", "b.example.com", "a-host"));
+		assertThat(contains(origins, "a-host")).isTrue();
+		assertThat(contains(origins, "b.example.com")).isTrue();
+		assertThat(contains(origins, "example.com")).isFalse();
+		assertThat(contains(origins, "c.b.example.com")).isFalse();
+		assertThat(contains(origins, "a-hos")).isFalse();
+		assertThat(contains(origins, "")).isFalse();
+	}
+
+	@Test
+	public void containsSubdomainsOfWildcards() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("*.example.com"));
+		assertThat(contains(origins, "a.example.com")).isTrue();
+		assertThat(contains(origins, "a.b.example.com")).isTrue();
+		assertThat(contains(origins, "example.com")).isFalse();
+		assertThat(contains(origins, ".example.com")).isFalse();
+		assertThat(contains(origins, "anexample.com")).isFalse();
+		assertThat(contains(origins, "a.example.org")).isFalse();
+	}
+
+	@Test
+	public void containsWithOverlappingWildcards() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("*.a.example.com", "*.example.com", "*.b.example.com"));
+		assertThat(contains(origins, "x.a.example.com")).isTrue();
+		assertThat(contains(origins, "x.c.example.com")).isTrue();
+		assertThat(contains(origins, "example.com")).isFalse();
+	}
+
+	@Test
+	public void containsHostsIgnoringAsciiCase() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("A-Host", "*.Example.com"));
+		assertThat(contains(origins, "a-host")).isTrue();
+		assertThat(contains(origins, "A-HOST")).isTrue();
+		assertThat(contains(origins, "www.EXAMPLE.COM")).isTrue();
+		assertThat(contains(origins, "www.exa\u212Aple.com")).isFalse();
+	}
+
+	@Test
+	public void containsHostsConfiguredInUnicode() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("bücher.example", "*.münchen.example"));
+		assertThat(contains(origins, "xn--bcher-kva.example")).isTrue();
+		assertThat(contains(origins, "www.xn--mnchen-3ya.example")).isTrue();
+	}
+
+	@Test
+	public void containsHostWithinLargerValue() {
+		TrustedOrigins origins = new TrustedOrigins(Arrays.asList("a-host", "*.example.com"));
+		String origin = "https://a-host:8443";
+		assertThat(origins.contains(origin, 8, 14)).isTrue();
+		assertThat(origins.contains(origin, 8, 13)).isFalse();
+		String referer = "https://www.example.com/path";
+		assertThat(origins.contains(referer, 8, 23)).isTrue();
+	}
+
+	@Test
+	public void containsEveryOneOfManyHosts() {
+		List<String> hosts = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i) {
+			hosts.add("host-" + i + ".example.org");
+		}
+		TrustedOrigins origins = new TrustedOrigins(hosts);
+		for (String host : hosts) {
+			assertThat(contains(origins, host)).isTrue();
+		}
+		assertThat(contains(origins, "host-1000.example.org")).isFalse();
+	}
+
+	@Test
+	public void rejectsBareWildcard() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("\"*\"");
+		new TrustedOrigins(Arrays.asList("*"));
+	}
+
+	@Test
+	public void rejectsOriginWithScheme() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("https://a-host");
+		new TrustedOrigins(Arrays.asList("https://a-host"));
+	}
+
+	@Test
+	public void rejectsInnerWildcard() {
+		thrown.expect(IllegalArgumentException.class);
+		new TrustedOrigins(Arrays.asList("a.*.example.com"));
+	}
+
+	private boolean contains(TrustedOrigins origins, String host) {
+		return origins.contains(host, 0, host.length());
+	}
+}
@@ -0,0 +1,158 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TrustedProxiesTest {
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void emptyListTrustsNoAddress() {
+		TrustedProxies proxies = new TrustedProxies(Collections.emptyList());
+		assertThat(proxies.contains("127.0.0.1")).isFalse();
+		assertThat(proxies.contains("::1")).isFalse();
+		assertThat(proxies.contains(null)).isFalse();
+	}
+
+	@Test
+	public void containsAddressesInIPv4Ranges() {
+		TrustedProxies proxies = new TrustedProxies(Arrays.asList("10.0.0.0/8", "192.168.1.1", "172.16.0.0/12"));
+		assertThat(proxies.contains("10.1.2.3")).isTrue();
+		assertThat(proxies.contains("192.168.1.1")).isTrue();
+		assertThat(proxies.contains("172.31.255.255")).isTrue();
+		assertThat(proxies.contains("::ffff:10.1.2.3")).isTrue();
+		assertThat(proxies.contains("11.0.0.1")).isFalse();
+		assertThat(proxies.contains("192.168.1.2")).isFalse();
+		assertThat(proxies.contains("172.32.0.0")).isFalse();
+	}
+
+	@Test
+	public void containsAddressesInIPv6Ranges() {
+		TrustedProxies proxies = new TrustedProxies(Arrays.asList("fd00::/8", "2001:db8::1", "::1"));
+		assertThat(proxies.contains("fd12:3456::1")).isTrue();
+		assertThat(proxies.contains("2001:DB8:0:0:0:0:0:1")).isTrue();
+		assertThat(proxies.contains("::1")).isTrue();
+		assertThat(proxies.contains("0:0:0:0:0:0:0:1")).isTrue();
+		assertThat(proxies.contains("fe00::1")).isFalse();
+		assertThat(proxies.contains("2001:db8::2")).isFalse();
+		assertThat(proxies.contains("127.0.0.1")).isFalse();
+	}
+
+	@Test
+	public void containsAddressWithinSpan() {
+		TrustedProxies proxies = new TrustedProxies(Arrays.asList("10.0.0.0/8"));
+		assertThat(proxies.contains("for=10.0.0.1:8080", 4, 12)).isTrue();
+	}
+
+	@Test
+	public void doesNotContainWhatIsNotAnAddress() {
+		TrustedProxies proxies = new TrustedProxies(Arrays.asList("0.0.0.0/0", "::/0"));
+		for (String notAnAddress : Arrays.asList("", "localhost", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.4 ", "1..2.3",
+				":", ":::", "1:::2", "1::2::3", ":1::2", "1::2:", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::",
+				"::1.2.3.4.5", "1:2:3:4:5:6:7:1.2.3.4", "fe80::1%eth0", "[::1]", "unknown", "_hidden", "g::1",
+				"١.2.3.4")) {
+			assertThat(proxies.contains(notAnAddress)).describedAs(notAnAddress).isFalse();
+		}
+		assertThat(proxies.contains("1:2:3:4:5:6:7::")).isTrue();
+		assertThat(proxies.contains("::1.2.3.4")).isTrue();
+		assertThat(proxies.contains("1:2:3:4:5:6:1.2.3.4")).isTrue();
+	}
+
+	@Test
+	public void rejectsInvalidRanges() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("10.0.0.0/33");
+		new TrustedProxies(Arrays.asList("10.0.0.0/33"));
+	}
+
+	@Test
+	public void rejectsHostNames() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("proxy.example.com");
+		new TrustedProxies(Arrays.asList("proxy.example.com"));
+	}
+
+	@Test
+	public void containsSameAddressesAsRangesForRandomAddresses() throws UnknownHostException {
+		Random random = new Random(7239);
+		for (int i = 0; i < 200; ++i) {
+			List<String> ranges = new ArrayList<>();
+			List<BigInteger[]> reference = new ArrayList<>();
+			int count = 1 + random.nextInt(8);
+			for (int j = 0; j < count; ++j) {
+				byte[] address = randomAddress(random);
+				int prefixLength = random.nextInt(address.length * 8 + 1);
+				ranges.add(InetAddress.getByAddress(address).getHostAddress() + "/" + prefixLength);
+				reference.add(new BigInteger[] { toBits(address), BigInteger.valueOf(prefixLength) });
+			}
+			TrustedProxies proxies = new TrustedProxies(ranges);
+			for (int j = 0; j < 200; ++j) {
+				byte[] address = randomAddress(random);
+				if (random.nextBoolean()) {
+					// near one of the ranges
+					byte[] base = toBytes(reference.get(random.nextInt(reference.size()))[0]);
+					System.arraycopy(base, 0, address, 0, random.nextInt(Math.min(base.length, address.length)));
+				}
+				String text = InetAddress.getByAddress(address).getHostAddress();
+				assertThat(proxies.contains(text)).describedAs("%s in %s", text, ranges)
+						.isEqualTo(contains(reference, toBits(address)));
+			}
+		}
+	}
+
+	private byte[] randomAddress(Random random) {
+		byte[] address = new byte[random.nextBoolean() ? 4 : 16];
+		random.nextBytes(address);
+		for (int i = 0; i < address.length; ++i) {
+			if (random.nextInt(3) == 0) {
+				address[i] = 0;
+			}
+		}
+		return address;
+	}
+
+	private BigInteger toBits(byte[] address) {
+		byte[] mapped = new byte[17];
+		if (address.length == 4) {
+			mapped[11] = (byte) 0xff;
+			mapped[12] = (byte) 0xff;
+			System.arraycopy(address, 0, mapped, 13, 4);
+		} else {
+			System.arraycopy(address, 0, mapped, 1, 16);
+		}
+		return new BigInteger(mapped).shiftLeft(1).or(BigInteger.valueOf(address.length == 4 ? 1 : 0));
+	}
+
+	private byte[] toBytes(BigInteger bits) {
+		byte[] bytes = new byte[16];
+		byte[] value = bits.shiftRight(1).toByteArray();
+		int length = Math.min(value.length, 16);
+		System.arraycopy(value, value.length - length, bytes, 16 - length, length);
+		return bits.testBit(0) ? Arrays.copyOfRange(bytes, 12, 16) : bytes;
+	}
+
+	private boolean contains(List<BigInteger[]> ranges, BigInteger address) {
+		for (BigInteger[] range : ranges) {
+			int addressBits = range[0].testBit(0) ? 32 : 128;
+			int hostBits = addressBits - range[1].intValue();
+			if (range[0].shiftRight(1 + hostBits).equals(address.shiftRight(1 + hostBits))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,106 @@
+package com.tasktop.servlet.cors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VirtualHostPoliciesTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final HostPolicy aPolicy = new HostPolicy(Optional.empty(), TrustedOrigins.NONE);
+
+	private final HostPolicy anotherPolicy = new HostPolicy(Optional.empty(), TrustedOrigins.NONE);
+
+	@Test
+	public void noneIsEmpty() {
+		assertThat(VirtualHostPolicies.NONE.isEmpty()).isTrue();
+		assertThat(VirtualHostPolicies.NONE.get("a-host")).isNull();
+	}
+
+	@Test
+	public void getsPolicyOfHost() {
+		VirtualHostPolicies policies = policies("a-host", "another-host");
+		assertThat(policies.isEmpty()).isFalse();
+		assertThat(policies.get("a-host")).isSameAs(aPolicy);
+		assertThat(policies.get("another-host")).isSameAs(anotherPolicy);
+	}
+
+	@Test
+	public void getsPolicyOfHostIgnoringPort() {
+		VirtualHostPolicies policies = policies("a-host", "[::1]");
+		assertThat(policies.get("a-host:8080")).isSameAs(aPolicy);
+		assertThat(policies.get("[::1]:8080")).isSameAs(anotherPolicy);
+	}
+
+	@Test
+	public void getsPolicyOfHostIgnoringCase() {
+		VirtualHostPolicies policies = policies("A-Host", "another-host");
+		assertThat(policies.get("a-host")).isSameAs(aPolicy);
+		assertThat(policies.get("ANOTHER-HOST:8080")).isSameAs(anotherPolicy);
+	}
+
+	@Test
+	public void getsPolicyOfHostConfiguredInUnicode() {
+		VirtualHostPolicies policies = policies("bücher.example", "another-host");
+		assertThat(policies.get("xn--bcher-kva.example:8080")).isSameAs(aPolicy);
+		assertThat(policies.get("XN--BCHER-KVA.example")).isSameAs(aPolicy);
+	}
+
+	@Test
+	public void getsNoPolicyOfOtherHost() {
+		VirtualHostPolicies policies = policies("a-host", "another-host");
+		assertThat(policies.get("a-hostname")).isNull();
+		assertThat(policies.get("a-hos")).isNull();
+		assertThat(policies.get("")).isNull();
+		assertThat(policies.get(null)).isNull();
+	}
+
+	@Test
+	public void getsPolicyOfManyHosts() {
+		Map<String, HostPolicy> policiesByHost = new LinkedHashMap<>();
+		for (int i = 0; i < 1000; ++i) {
+			policiesByHost.put("host" + i + ".example.com", i % 2 == 0 ? aPolicy : anotherPolicy);
+		}
+		VirtualHostPolicies policies = new VirtualHostPolicies(policiesByHost);
+		for (int i = 0; i < 1000; ++i) {
+			assertThat(policies.get("host" + i + ".example.com")).isSameAs(i % 2 == 0 ? aPolicy : anotherPolicy);
+			assertThat(policies.get("host" + i + ".example.org")).isNull();
+		}
+	}
+
+	@Test
+	public void rejectsHostWithPort() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("a-host:8080");
+		policies("a-host:8080", "another-host");
+	}
+
+	@Test
+	public void rejectsWildcardHost() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("*.example.com");
+		policies("*.example.com", "another-host");
+	}
+
+	@Test
+	public void rejectsHostGivenTwice() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("given more than once");
+		policies("a-host", "A-HOST");
+	}
+
+	private VirtualHostPolicies policies(String aHost, String anotherHost) {
+		Map<String, HostPolicy> policiesByHost = new LinkedHashMap<>();
+		policiesByHost.put(aHost, aPolicy);
+		policiesByHost.put(anotherHost, anotherPolicy);
+		return new VirtualHostPolicies(policiesByHost);
+	}
+}